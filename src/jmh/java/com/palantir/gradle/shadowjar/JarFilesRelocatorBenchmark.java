@@ -0,0 +1,135 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.github.jengelman.gradle.plugins.shadow.ShadowStats;
+import com.github.jengelman.gradle.plugins.shadow.relocation.RelocateClassContext;
+import com.github.jengelman.gradle.plugins.shadow.relocation.RelocatePathContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The relocator shadow consults for every path and constant pool string. Lookups mix names from the shaded jars with
+ * JDK and project names that must be left alone, roughly in the proportion a real constant pool has.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JarFilesRelocatorBenchmark {
+    private static final String SHADED_PREFIX = "shadow.com.palantir.benchmark.";
+    private static final int LOOKUPS = 4096;
+
+    @Param({"100"})
+    public int jarCount;
+
+    @Param({"500"})
+    public int classesPerJar;
+
+    private RelocatableIndex relocatable;
+    private String[] paths;
+    private RelocatePathContext[] pathContexts;
+    private RelocateClassContext[] classContexts;
+    private ShadowJarConfigurationTask.JarFilesRelocator relocator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> entries = SyntheticJars.entryNames(jarCount, classesPerJar);
+        relocatable = RelocatableIndex.of(entries);
+
+        Random random = new Random(0);
+        List<String> lookups = new ArrayList<>(LOOKUPS);
+        for (int i = 0; i < LOOKUPS; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    lookups.add("java/lang/String" + (i % 64));
+                    break;
+                case 1:
+                    lookups.add("com/palantir/project/Type" + (i % 64));
+                    break;
+                default:
+                    String entry = entries.get(random.nextInt(entries.size()));
+                    lookups.add(entry.endsWith(".class") ? entry.substring(0, entry.length() - 6) : entry);
+            }
+        }
+        Collections.shuffle(lookups, random);
+
+        ShadowStats stats = new ShadowStats();
+        paths = lookups.toArray(new String[0]);
+        pathContexts = new RelocatePathContext[paths.length];
+        classContexts = new RelocateClassContext[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            pathContexts[i] = RelocatePathContext.builder()
+                    .path(paths[i])
+                    .stats(stats)
+                    .build();
+            classContexts[i] = RelocateClassContext.builder()
+                    .className(paths[i].replace('/', '.'))
+                    .stats(stats)
+                    .build();
+        }
+    }
+
+    /** A fresh relocator per iteration, so the memoized results are measured as a build would see them. */
+    @Setup(Level.Iteration)
+    public void newRelocator() {
+        relocator = new ShadowJarConfigurationTask.JarFilesRelocator(relocatable, SHADED_PREFIX);
+    }
+
+    @Benchmark
+    public void canRelocatePath(Blackhole blackhole) {
+        for (String path : paths) {
+            blackhole.consume(relocator.canRelocatePath(path));
+        }
+    }
+
+    @Benchmark
+    public void relocatePath(Blackhole blackhole) {
+        for (RelocatePathContext context : pathContexts) {
+            if (relocator.canRelocatePath(context.getPath())) {
+                blackhole.consume(relocator.relocatePath(context));
+            }
+        }
+    }
+
+    @Benchmark
+    public void relocateClass(Blackhole blackhole) {
+        for (RelocateClassContext context : classContexts) {
+            if (relocator.canRelocateClass(context.getClassName())) {
+                blackhole.consume(relocator.relocateClass(context));
+            }
+        }
+    }
+}
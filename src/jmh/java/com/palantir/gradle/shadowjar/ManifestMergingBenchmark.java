@@ -0,0 +1,102 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.github.jengelman.gradle.plugins.shadow.ShadowStats;
+import com.github.jengelman.gradle.plugins.shadow.transformers.TransformerContext;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import org.apache.tools.zip.ZipOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merging the project manifest with the manifests of the shaded jars and writing it back with the relocation plan's
+ * attributes, once per {@code shadowJar} run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ManifestMergingBenchmark {
+    @Param({"10", "200"})
+    public int manifestLines;
+
+    @Param({"0", "500"})
+    public int shadedManifests;
+
+    private byte[] manifest;
+    private byte[] shadedManifest;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder("Manifest-Version: 1.0\r\n");
+        for (int i = 0; i < manifestLines; i++) {
+            builder.append("Attribute-").append(i).append(": value-").append(i).append("\r\n");
+        }
+        builder.append("\r\n\r\n");
+        manifest = builder.toString().getBytes(StandardCharsets.UTF_8);
+
+        // Shaded manifests have the same main section, then per-entry sections that need not be read
+        StringBuilder shaded = new StringBuilder(builder).append("Add-Opens: java.base/java.lang\r\n\r\n");
+        for (int i = 0; i < manifestLines; i++) {
+            shaded.append("Name: pkg/Class").append(i).append(".class\r\nSHA-256-Digest: digest\r\n\r\n");
+        }
+        shadedManifest = shaded.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ManifestMergingTransformer mergeManifests() throws IOException {
+        ManifestMergingTransformer transformer = new ManifestMergingTransformer();
+        transformer.replacePlanAttributes(ImmutableMap.of("Multi-Release", "true"));
+        transformer.transform(context(manifest));
+        for (int i = 0; i < shadedManifests; i++) {
+            transformer.transform(context(shadedManifest));
+        }
+
+        try (ZipOutputStream out = new ZipOutputStream(OutputStream.nullOutputStream())) {
+            transformer.modifyOutputStream(out, false);
+        }
+        return transformer;
+    }
+
+    private static TransformerContext context(byte[] manifest) {
+        return TransformerContext.builder()
+                .path(JarFile.MANIFEST_NAME)
+                .is(new ByteArrayInputStream(manifest))
+                .relocators(Collections.emptyList())
+                .stats(new ShadowStats())
+                .build();
+    }
+}
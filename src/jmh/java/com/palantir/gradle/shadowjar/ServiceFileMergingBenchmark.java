@@ -0,0 +1,105 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.github.jengelman.gradle.plugins.shadow.ShadowStats;
+import com.github.jengelman.gradle.plugins.shadow.transformers.TransformerContext;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.tools.zip.ZipOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merging and relocating the {@code META-INF/services} files of many shaded jars, which mostly list providers of the
+ * same few services, once per {@code shadowJar} run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceFileMergingBenchmark {
+    private static final int SERVICES = 20;
+
+    @Param({"10", "500"})
+    public int shadedJars;
+
+    @Param({"1", "20"})
+    public int providersPerFile;
+
+    private ShadedNameRemapper remapper;
+    private List<byte[]> serviceFiles;
+
+    @Setup
+    public void setUp() {
+        List<String> relocatable = new ArrayList<>();
+        serviceFiles = new ArrayList<>();
+        for (int jar = 0; jar < shadedJars; jar++) {
+            StringBuilder file = new StringBuilder("# Providers of jar ").append(jar).append('\n');
+            for (int i = 0; i < providersPerFile; i++) {
+                String provider = "com/example/jar" + jar + "/Provider" + i;
+                relocatable.add(provider + ".class");
+                file.append(provider.replace('/', '.')).append('\n');
+            }
+            serviceFiles.add(file.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        for (int service = 0; service < SERVICES; service++) {
+            relocatable.add("com/example/api/Service" + service + ".class");
+        }
+        remapper = new ShadedNameRemapper(RelocatableIndex.of(relocatable), "shadow.");
+    }
+
+    @Benchmark
+    public ServiceFileMergingTransformer mergeServiceFiles() throws IOException {
+        ServiceFileMergingTransformer transformer = new ServiceFileMergingTransformer();
+        transformer.useRemapper(remapper);
+        for (int jar = 0; jar < shadedJars; jar++) {
+            transformer.transform(context("com.example.api.Service" + (jar % SERVICES), serviceFiles.get(jar)));
+        }
+
+        try (ZipOutputStream out = new ZipOutputStream(OutputStream.nullOutputStream())) {
+            transformer.modifyOutputStream(out, false);
+        }
+        return transformer;
+    }
+
+    private static TransformerContext context(String service, byte[] serviceFile) {
+        return TransformerContext.builder()
+                .path("META-INF/services/" + service)
+                .is(new ByteArrayInputStream(serviceFile))
+                .relocators(Collections.emptyList())
+                .stats(new ShadowStats())
+                .build();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The configuration-time split of {@code shadeTransitively} into shaded and rejected modules, on layered graphs where
+ * each module depends on a few modules of the next layer, so shared subtrees are reachable through many paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShadowingCalculatorBenchmark {
+    private static final int DEPENDENCIES_PER_MODULE = 4;
+
+    @Param({"20", "60"})
+    public int layers;
+
+    @Param({"50", "200"})
+    public int modulesPerLayer;
+
+    private Set<Integer> shaded;
+    private Set<Integer> unshaded;
+    private ShadowingCalculator<Integer> calculator;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        int moduleCount = layers * modulesPerLayer;
+        Map<Integer, List<Integer>> children = new HashMap<>();
+        Set<Integer> banned = new HashSet<>();
+        shaded = new HashSet<>();
+        unshaded = new HashSet<>();
+
+        for (int module = 0; module < moduleCount; module++) {
+            int nextLayer = module / modulesPerLayer + 1;
+            List<Integer> dependencies = new ArrayList<>(DEPENDENCIES_PER_MODULE);
+            if (nextLayer < layers) {
+                for (int i = 0; i < DEPENDENCIES_PER_MODULE; i++) {
+                    dependencies.add(nextLayer * modulesPerLayer + random.nextInt(modulesPerLayer));
+                }
+            }
+            children.put(module, dependencies);
+
+            shaded.add(module);
+            if (random.nextInt(100) == 0) {
+                banned.add(module);
+            }
+            if (random.nextInt(50) == 0) {
+                unshaded.add(module);
+            }
+        }
+
+        calculator = new ShadowingCalculator<>(children::get, banned::contains, module -> module % 7 == 0);
+    }
+
+    @Benchmark
+    public ShadowingCalculator.Result<Integer> calculate() {
+        return calculator.calculate(shaded, unshaded);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+/** Generates dependency-like jars on disk, so benchmarks do not need anything from the network. */
+final class SyntheticJars {
+    private static final int PACKAGES_PER_JAR = 8;
+
+    private SyntheticJars() {}
+
+    /**
+     * Writes {@code jarCount} jars of {@code classesPerJar} classes each, spread over a few packages and accompanied by
+     * a manifest, a service file and a resource per package, like a typical library jar.
+     */
+    static List<File> generate(Path directory, int jarCount, int classesPerJar) throws IOException {
+        Files.createDirectories(directory);
+        List<File> jars = new ArrayList<>(jarCount);
+        for (int jar = 0; jar < jarCount; jar++) {
+            File file = directory.resolve("lib" + jar + ".jar").toFile();
+            try (ZipOutputStream out =
+                    new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+                write(out, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n".getBytes(StandardCharsets.UTF_8));
+                write(
+                        out,
+                        "META-INF/services/com.example.Plugin",
+                        className(jar, 0, 0).replace('/', '.').getBytes(StandardCharsets.UTF_8));
+                for (int pkg = 0; pkg < PACKAGES_PER_JAR; pkg++) {
+                    write(
+                            out,
+                            packageName(jar, pkg) + "/messages.properties",
+                            "key=value\n".getBytes(StandardCharsets.UTF_8));
+                }
+                for (int i = 0; i < classesPerJar; i++) {
+                    String name = className(jar, i % PACKAGES_PER_JAR, i);
+                    write(out, name + ".class", classBytes(name, className(jar, (i + 1) % PACKAGES_PER_JAR, i + 1)));
+                }
+            }
+            jars.add(file);
+        }
+        return jars;
+    }
+
+    /** The entries of {@link #generate}, without writing anything. */
+    static List<String> entryNames(int jarCount, int classesPerJar) {
+        List<String> entries = new ArrayList<>();
+        for (int jar = 0; jar < jarCount; jar++) {
+            for (int pkg = 0; pkg < PACKAGES_PER_JAR; pkg++) {
+                entries.add(packageName(jar, pkg) + "/messages.properties");
+            }
+            for (int i = 0; i < classesPerJar; i++) {
+                entries.add(className(jar, i % PACKAGES_PER_JAR, i) + ".class");
+            }
+        }
+        return entries;
+    }
+
+    static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static String packageName(int jar, int pkg) {
+        return "com/example/lib" + jar + "/pkg" + pkg;
+    }
+
+    private static String className(int jar, int pkg, int index) {
+        return packageName(jar, pkg) + "/Class" + index;
+    }
+
+    /** A class with a field of another class, so its constant pool refers to more than just itself. */
+    private static byte[] classBytes(String name, String fieldType) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PRIVATE, "next", "L" + fieldType + ";", null, null)
+                .visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static void write(ZipOutputStream out, String name, byte[] content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content);
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The constant pool of a class file, read straight from its bytes. Every class name, descriptor, signature and string
+ * constant a class refers to is a CONSTANT_Utf8 entry, so the pool is enough to find references without a full parse,
+ * and renaming classes only means replacing some of those entries.
+ */
+final class ClassFileConstantPool {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int HEADER_SIZE = 10;
+    private static final int MAX_UTF8_LENGTH = 0xffff;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private final byte[] bytes;
+    /** Offset of the tag of each entry; 0 for index 0 and the unusable slot after a long or double. */
+    private final int[] offsets;
+    /** Decoded lazily, as a scan usually stops long before the last entry. */
+    private final String[] utf8Values;
+    private final boolean[] namesClassOrString;
+    private final boolean hasModuleOrPackage;
+    private final int end;
+
+    private ClassFileConstantPool(
+            byte[] bytes, int[] offsets, boolean[] namesClassOrString, boolean hasModuleOrPackage, int end) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+        this.utf8Values = new String[offsets.length];
+        this.namesClassOrString = namesClassOrString;
+        this.hasModuleOrPackage = hasModuleOrPackage;
+        this.end = end;
+    }
+
+    static boolean isClassFile(byte[] bytes) {
+        return bytes.length >= HEADER_SIZE && readInt(bytes, 0) == MAGIC;
+    }
+
+    /** Parses the constant pool, or returns empty if {@code bytes} is not a well-formed class file. */
+    static Optional<ClassFileConstantPool> parse(byte[] bytes) {
+        if (!isClassFile(bytes)) {
+            return Optional.empty();
+        }
+
+        int count = readUnsignedShort(bytes, 8);
+        int[] offsets = new int[count];
+        boolean[] isUtf8 = new boolean[count];
+        boolean[] namesClassOrString = new boolean[count];
+        boolean hasModuleOrPackage = false;
+        int offset = HEADER_SIZE;
+        try {
+            for (int index = 1; index < count; index++) {
+                offsets[index] = offset;
+                int tag = bytes[offset];
+                switch (tag) {
+                    case CONSTANT_UTF8:
+                        isUtf8[index] = true;
+                        offset += 3 + readUnsignedShort(bytes, offset + 1);
+                        break;
+                    case CONSTANT_MODULE:
+                    case CONSTANT_PACKAGE:
+                        hasModuleOrPackage = true;
+                        offset += 3;
+                        break;
+                    case CONSTANT_CLASS:
+                    case CONSTANT_STRING:
+                    case CONSTANT_METHOD_TYPE:
+                        offset += 3;
+                        break;
+                    case CONSTANT_METHOD_HANDLE:
+                        offset += 4;
+                        break;
+                    case CONSTANT_INTEGER:
+                    case CONSTANT_FLOAT:
+                    case CONSTANT_FIELDREF:
+                    case CONSTANT_METHODREF:
+                    case CONSTANT_INTERFACE_METHODREF:
+                    case CONSTANT_NAME_AND_TYPE:
+                    case CONSTANT_DYNAMIC:
+                    case CONSTANT_INVOKE_DYNAMIC:
+                        offset += 5;
+                        break;
+                    case CONSTANT_LONG:
+                    case CONSTANT_DOUBLE:
+                        // Eight byte constants take up two slots in the pool
+                        offset += 9;
+                        index++;
+                        break;
+                    default:
+                        return Optional.empty();
+                }
+            }
+
+            for (int index = 1; index < count; index++) {
+                int tag = offsets[index] == 0 ? 0 : bytes[offsets[index]];
+                if (tag == CONSTANT_CLASS || tag == CONSTANT_STRING) {
+                    int nameIndex = readUnsignedShort(bytes, offsets[index] + 1);
+                    if (nameIndex >= count || !isUtf8[nameIndex]) {
+                        return Optional.empty();
+                    }
+                    namesClassOrString[nameIndex] = true;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return Optional.empty();
+        }
+
+        if (offset > bytes.length) {
+            return Optional.empty();
+        }
+        return Optional.of(new ClassFileConstantPool(bytes, offsets, namesClassOrString, hasModuleOrPackage, offset));
+    }
+
+    /** The {@code constant_pool_count}: entries are numbered from 1 to one less than this. */
+    int count() {
+        return offsets.length;
+    }
+
+    /** The value of the CONSTANT_Utf8 entry at {@code index}, or null if it is another kind of entry. */
+    String utf8(int index) {
+        String value = utf8Values[index];
+        if (value == null && offsets[index] != 0 && bytes[offsets[index]] == CONSTANT_UTF8) {
+            value = decode(bytes, offsets[index] + 3, readUnsignedShort(bytes, offsets[index] + 1));
+            utf8Values[index] = value;
+        }
+        return value;
+    }
+
+    /** Whether a CONSTANT_Class or CONSTANT_String entry refers to the CONSTANT_Utf8 entry at {@code index}. */
+    boolean namesClassOrString(int index) {
+        return namesClassOrString[index];
+    }
+
+    /** Only module descriptors have CONSTANT_Module and CONSTANT_Package entries. */
+    boolean hasModuleOrPackage() {
+        return hasModuleOrPackage;
+    }
+
+    /**
+     * Returns the class file with the given CONSTANT_Utf8 entries replaced. Everything else refers to the pool by
+     * index, so the rest of the class file is copied as it is. Returns empty if a new value is too long for an entry.
+     */
+    Optional<byte[]> withUtf8Replaced(Map<Integer, String> replacements) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + 32 * replacements.size());
+        out.write(bytes, 0, HEADER_SIZE);
+        for (int index = 1; index < count(); index++) {
+            if (offsets[index] == 0) {
+                continue;
+            }
+            String replacement = replacements.get(index);
+            if (replacement == null) {
+                out.write(bytes, offsets[index], entryEnd(index) - offsets[index]);
+                continue;
+            }
+
+            byte[] encoded = encode(replacement);
+            if (encoded.length > MAX_UTF8_LENGTH) {
+                return Optional.empty();
+            }
+            out.write(CONSTANT_UTF8);
+            out.write(encoded.length >>> 8);
+            out.write(encoded.length);
+            out.write(encoded, 0, encoded.length);
+        }
+        out.write(bytes, end, bytes.length - end);
+        return Optional.of(out.toByteArray());
+    }
+
+    /**
+     * Passes every class name {@code value} could stand for to {@code action}: the whole value as an internal or
+     * dotted name, the same after a leading {@code [L} or {@code L}, and each {@code L<name>;} or {@code L<name><} of a
+     * descriptor or signature. This is a superset of the names an ASM remapper is asked about for the value.
+     */
+    static void forEachClassNameIn(String value, Consumer<String> action) {
+        anyClassNameIn(value, name -> {
+            action.accept(name);
+            return false;
+        });
+    }
+
+    /** Whether any class name {@code value} could stand for, as in {@link #forEachClassNameIn}, matches. */
+    static boolean anyClassNameIn(String value, Predicate<String> predicate) {
+        if (anyWithDottedForm(value, predicate)) {
+            return true;
+        }
+
+        int arrayDimensions = 0;
+        while (arrayDimensions < value.length() && value.charAt(arrayDimensions) == '[') {
+            arrayDimensions++;
+        }
+        if (arrayDimensions + 1 < value.length()
+                && value.charAt(arrayDimensions) == 'L'
+                && anyWithDottedForm(value.substring(arrayDimensions + 1), predicate)) {
+            return true;
+        }
+
+        // Scanning right to left keeps track of where the name starting at each 'L' would end, so this stays linear
+        int nameEnd = -1;
+        for (int i = value.length() - 1; i >= 0; i--) {
+            char ch = value.charAt(i);
+            if (ch == ';' || ch == '<') {
+                nameEnd = i;
+            } else if (isNameTerminator(ch)) {
+                nameEnd = -1;
+            } else if (ch == 'L' && nameEnd > i + 1 && predicate.test(value.substring(i + 1, nameEnd))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean anyWithDottedForm(String name, Predicate<String> predicate) {
+        return predicate.test(name)
+                || (name.indexOf('/') < 0 && name.indexOf('.') >= 0 && predicate.test(name.replace('.', '/')));
+    }
+
+    private static boolean isNameTerminator(char ch) {
+        return ch == '(' || ch == ')' || ch == '[' || ch == '>' || ch == ':' || ch == '.' || Character.isWhitespace(ch);
+    }
+
+    private int entryEnd(int index) {
+        for (int next = index + 1; next < count(); next++) {
+            if (offsets[next] != 0) {
+                return offsets[next];
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Decodes the JVM's modified UTF-8, which only differs from UTF-8 in how it encodes NUL and surrogates. Like ASM,
+     * this trusts the class file rather than validating it.
+     */
+    private static String decode(byte[] bytes, int start, int length) {
+        int end = start + length;
+        int offset = start;
+        while (offset < end && bytes[offset] >= 0) {
+            offset++;
+        }
+        if (offset == end) {
+            return new String(bytes, start, length, StandardCharsets.ISO_8859_1);
+        }
+
+        char[] chars = new char[length];
+        int count = 0;
+        offset = start;
+        while (offset < end) {
+            int first = bytes[offset++] & 0xff;
+            if (first < 0x80) {
+                chars[count++] = (char) first;
+            } else if ((first & 0xe0) == 0xc0) {
+                chars[count++] = (char) (((first & 0x1f) << 6) | (bytes[offset++] & 0x3f));
+            } else {
+                chars[count++] =
+                        (char) (((first & 0x0f) << 12) | ((bytes[offset++] & 0x3f) << 6) | (bytes[offset++] & 0x3f));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static byte[] encode(String value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch != 0 && ch < 0x80) {
+                out.write(ch);
+            } else if (ch < 0x800) {
+                out.write(0xc0 | (ch >> 6));
+                out.write(0x80 | (ch & 0x3f));
+            } else {
+                out.write(0xe0 | (ch >> 12));
+                out.write(0x80 | ((ch >> 6) & 0x3f));
+                out.write(0x80 | (ch & 0x3f));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static int readUnsignedShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (readUnsignedShort(bytes, offset) << 16) | readUnsignedShort(bytes, offset + 2);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.gradle.api.GradleException;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+
+/**
+ * Relocates class files with as little work as each class allows, checking its constant pool against the relocatable
+ * index before doing anything else:
+ *
+ * <ul>
+ *   <li>a class that cannot mention a relocated class is left exactly as it is;
+ *   <li>a class that only mentions them as plain class names or string constants has those constant pool entries
+ *       renamed, and the rest of its bytes copied;
+ *   <li>anything else, such as a relocated class in a descriptor or signature, is rewritten with ASM.
+ * </ul>
+ *
+ * <p>The renamed entries get exactly the values the {@link ShadedNameRemapper} gives them through ASM, so all three
+ * produce the same class, apart from the order of its constant pool.
+ */
+final class ClassFileRelocator {
+    private final ShadedNameRemapper remapper;
+
+    ClassFileRelocator(ShadedNameRemapper remapper) {
+        this.remapper = remapper;
+    }
+
+    /** Returns the relocated class, or empty if {@code classBytes} can be used unchanged. */
+    Optional<byte[]> relocate(byte[] classBytes, String path) {
+        if (!ClassFileConstantPool.isClassFile(classBytes)) {
+            // Not a class at all, e.g. a test fixture, so there is nothing to relocate
+            return Optional.empty();
+        }
+
+        Optional<ClassFileConstantPool> maybePool = ClassFileConstantPool.parse(classBytes);
+        if (!maybePool.isPresent()) {
+            return Optional.of(remapWithAsm(classBytes, path));
+        }
+
+        ClassFileConstantPool pool = maybePool.get();
+        Map<Integer, String> renames = new HashMap<>();
+        for (int i = 1; i < pool.count(); i++) {
+            String value = pool.utf8(i);
+            if (value == null || !remapper.mayRelocate(value)) {
+                continue;
+            }
+            if (!isRenamedInPlace(pool, i, value)) {
+                return Optional.of(remapWithAsm(classBytes, path));
+            }
+
+            String renamed = remapper.map(value);
+            if (!renamed.equals(value)) {
+                renames.put(i, renamed);
+            }
+        }
+
+        if (renames.isEmpty()) {
+            return Optional.empty();
+        }
+        Optional<byte[]> patched = pool.withUtf8Replaced(renames);
+        return patched.isPresent() ? patched : Optional.of(remapWithAsm(classBytes, path));
+    }
+
+    /**
+     * Whether every use of the entry is remapped the same way as the entry itself. A class name of a CONSTANT_Class
+     * entry goes through {@link ShadedNameRemapper#map} and a CONSTANT_String through its {@code mapValue}, which only
+     * differ for dotted class names, so not for a value with a '/'. A value with a '/' but no ';' cannot also be a
+     * descriptor, signature or member name, so renaming the entry cannot rename anything that ASM would not.
+     */
+    private static boolean isRenamedInPlace(ClassFileConstantPool pool, int index, String value) {
+        return pool.namesClassOrString(index)
+                && !pool.hasModuleOrPackage()
+                && value.indexOf('/') >= 0
+                && value.indexOf(';') < 0
+                && !value.startsWith("[");
+    }
+
+    private byte[] remapWithAsm(byte[] classBytes, String path) {
+        try {
+            ClassReader reader = new ClassReader(classBytes);
+            ClassWriter writer = new ClassWriter(0);
+            reader.accept(new ClassRemapper(writer, remapper), ClassReader.EXPAND_FRAMES);
+            return writer.toByteArray();
+        } catch (RuntimeException e) {
+            // Same failure as shadow's own copy action
+            throw new GradleException("Error in ASM processing class " + path, e);
+        }
+    }
+}
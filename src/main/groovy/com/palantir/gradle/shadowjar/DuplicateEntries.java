@@ -0,0 +1,171 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import groovy.json.JsonOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * The entry paths that more than one shaded jar contains, and which jar owns each of them.
+ *
+ * <p>{@code shadowJar} copies the jars in classpath order and keeps the first copy of each path, dropping later copies
+ * by their path before reading them; ownership follows the same order. Contents are only compared for colliding paths,
+ * by the CRC-32 and size that the cached listing of each jar recorded from its central directory, so no jar is opened
+ * again.
+ */
+final class DuplicateEntries {
+    private final List<Duplicate> duplicates;
+
+    private DuplicateEntries(List<Duplicate> duplicates) {
+        this.duplicates = duplicates;
+    }
+
+    /** Finds the duplicates between the jars of {@code listingByJar}, which must iterate in classpath order. */
+    static DuplicateEntries find(Map<File, JarListing> listingByJar) {
+        Map<String, File> owners = new HashMap<>();
+        Map<String, List<File>> jarsByPath = new TreeMap<>();
+        listingByJar.forEach((jar, listing) -> {
+            for (String path : listing.paths()) {
+                File owner = owners.putIfAbsent(path, jar);
+                if (owner == null || owner.equals(jar)) {
+                    continue;
+                }
+                List<File> jars = jarsByPath.computeIfAbsent(path, _path -> {
+                    List<File> copies = new ArrayList<>();
+                    copies.add(owner);
+                    return copies;
+                });
+                if (!jars.contains(jar)) {
+                    jars.add(jar);
+                }
+            }
+        });
+
+        Map<File, Map<String, Content>> contents = new HashMap<>();
+        listingByJar.forEach((jar, listing) -> {
+            List<String> paths = listing.paths();
+            for (int i = 0; i < paths.size(); i++) {
+                String path = paths.get(i);
+                if (jarsByPath.containsKey(path) && !isMerged(path)) {
+                    contents.computeIfAbsent(jar, _jar -> new HashMap<>())
+                            .putIfAbsent(path, new Content(listing.crc(i), listing.size(i)));
+                }
+            }
+        });
+
+        ImmutableList.Builder<Duplicate> duplicates = ImmutableList.builder();
+        jarsByPath.forEach((path, jars) -> {
+            boolean merged = isMerged(path);
+            boolean identical = !merged
+                    && jars.stream().map(jar -> contents.get(jar).get(path)).collect(Collectors.toSet()).size() == 1;
+            duplicates.add(new Duplicate(path, jars, merged, identical));
+        });
+        return new DuplicateEntries(duplicates.build());
+    }
+
+    /** Service files and the manifest are merged by {@code shadowJar}'s transformers rather than copied. */
+    static boolean isMerged(String path) {
+        return path.startsWith("META-INF/services/") || path.equals("META-INF/MANIFEST.MF");
+    }
+
+    List<Duplicate> all() {
+        return duplicates;
+    }
+
+    /** Duplicates whose copies differ and are not merged, so which jar comes first decides what ships. */
+    List<Duplicate> conflicts() {
+        return duplicates.stream()
+                .filter(duplicate -> !duplicate.merged && !duplicate.identical)
+                .collect(Collectors.toList());
+    }
+
+    void writeReportTo(File file) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("duplicatePaths", duplicates.size());
+        report.put("conflictingPaths", conflicts().size());
+        report.put(
+                "duplicates", duplicates.stream().map(Duplicate::toReport).collect(Collectors.toList()));
+        try {
+            String json = JsonOutput.prettyPrint(JsonOutput.toJson(report));
+            Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write duplicate entries report " + file, e);
+        }
+    }
+
+    static final class Duplicate {
+        private final String path;
+        private final List<File> jars;
+        private final boolean merged;
+        private final boolean identical;
+
+        private Duplicate(String path, List<File> jars, boolean merged, boolean identical) {
+            this.path = path;
+            this.jars = jars;
+            this.merged = merged;
+            this.identical = identical;
+        }
+
+        String path() {
+            return path;
+        }
+
+        /** The jars containing the path, in classpath order, so the first one owns it. */
+        List<File> jars() {
+            return jars;
+        }
+
+        private Map<String, Object> toReport() {
+            return ImmutableMap.of(
+                    "path", path,
+                    "jars", jars.stream().map(File::getName).collect(Collectors.toList()),
+                    "resolution", merged ? "merged" : identical ? "identical" : "first wins");
+        }
+    }
+
+    private static final class Content {
+        private final long crc;
+        private final long size;
+
+        private Content(long crc, long size) {
+            this.crc = crc;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Content && ((Content) other).crc == crc && ((Content) other).size == size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(crc) * 31 + Long.hashCode(size);
+        }
+    }
+}
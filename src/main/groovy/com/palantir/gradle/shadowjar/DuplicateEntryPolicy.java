@@ -0,0 +1,29 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+/**
+ * What {@code relocateShadowJar} does when several shaded jars contain the same entry with different contents. Entries
+ * that {@code shadowJar} merges rather than copies, service files and the manifest, are merged under every policy.
+ */
+public enum DuplicateEntryPolicy {
+    /** Keep the entry of the first jar on the classpath, which is what {@code shadowJar} copies. */
+    FIRST_WINS,
+
+    /** Fail the build, listing the conflicting entries. */
+    FAIL
+}
@@ -0,0 +1,281 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.gradle.api.Project;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of the entry names of shaded jars, shared by every project in the build. Listings are stored
+ * under the Gradle user home keyed by the jar's path, size and modification time, so they survive daemon restarts
+ * and let warm builds skip opening unchanged dependency jars. Once the cache grows past its size limit, the least
+ * recently used listings are evicted when the build finishes.
+ *
+ * <p>Listings are also kept in memory for the length of the build, up to a total number of entries, so the many
+ * projects of a large build that shade the same jars share one copy. Projects asking for the same jar at once wait
+ * for a single listing rather than each reading it.
+ */
+public abstract class JarEntryIndexCache implements BuildService<JarEntryIndexCache.Params>, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(JarEntryIndexCache.class);
+
+    private static final int FORMAT_VERSION = 2;
+    private static final String LISTING_SUFFIX = ".entries";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Other builds may still be writing their temp files into the shared directory, so only old ones are removed
+    private static final long STALE_TEMP_FILE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long DEFAULT_MAX_SIZE_BYTES = 256L * 1024 * 1024;
+    private static final long DEFAULT_MAX_ENTRIES_IN_MEMORY = 2_000_000L;
+
+    public interface Params extends BuildServiceParameters {
+        DirectoryProperty getCacheDirectory();
+
+        Property<Long> getMaxSizeBytes();
+
+        /** Bounds the heap used by listings held in memory, by their total number of entries. */
+        Property<Long> getMaxEntriesInMemory();
+    }
+
+    private final Cache<String, JarListing> inMemory = Caffeine.newBuilder()
+            .maximumWeight(getParameters().getMaxEntriesInMemory().get())
+            .weigher((String _key, JarListing listing) -> listing.paths().size())
+            .build();
+
+    static Provider<JarEntryIndexCache> register(Project project) {
+        File cacheDirectory =
+                new File(project.getGradle().getGradleUserHomeDir(), "caches/com.palantir.shadow-jar/entry-index");
+        return project.getGradle()
+                .getSharedServices()
+                .registerIfAbsent("shadowJarEntryIndexCache", JarEntryIndexCache.class, spec -> {
+                    spec.getParameters().getCacheDirectory().set(cacheDirectory);
+                    spec.getParameters().getMaxSizeBytes().convention(DEFAULT_MAX_SIZE_BYTES);
+                    spec.getParameters().getMaxEntriesInMemory().convention(DEFAULT_MAX_ENTRIES_IN_MEMORY);
+                });
+    }
+
+    /**
+     * Returns the entries of {@code jar}, reading the jar only if there is no valid listing for it in memory or on
+     * disk. The returned list is shared and cannot be modified.
+     */
+    public final List<String> entriesOf(File jar) {
+        return listingOf(jar, new Reads()).paths();
+    }
+
+    /**
+     * Like {@link #entriesOf(File)}, but with the CRC-32 and size of each entry, counting in {@code reads} where the
+     * listing came from.
+     */
+    final JarListing listingOf(File jar, Reads reads) {
+        boolean[] loaded = {false};
+        // Loading under the cache's lock for this key is what stops parallel projects listing the same jar twice
+        JarListing listing = inMemory.get(keyOf(jar), key -> {
+            loaded[0] = true;
+            Path file = cacheDirectory().resolve(key + LISTING_SUFFIX);
+            Optional<JarListing> cached = readListing(file);
+            if (cached.isPresent()) {
+                reads.listingsLoaded.increment();
+                reads.bytesRead.add(file.toFile().length());
+                return cached.get();
+            }
+
+            JarListing listed = JarEntryIndexer.list(jar, reads.bytesRead::add);
+            reads.jarsListed.increment();
+            writeListing(file, listed);
+            return listed;
+        });
+        if (!loaded[0]) {
+            reads.listingsShared.increment();
+        }
+        return listing;
+    }
+
+    private static String keyOf(File jar) {
+        return Hashing.sha256()
+                .newHasher()
+                .putString(jar.getAbsolutePath(), StandardCharsets.UTF_8)
+                .putLong(jar.length())
+                .putLong(jar.lastModified())
+                .hash()
+                .toString();
+    }
+
+    private static Optional<JarListing> readListing(Path listing) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(listing)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return Optional.empty();
+            }
+            int size = in.readInt();
+            ImmutableList.Builder<String> entries = ImmutableList.builderWithExpectedSize(size);
+            int[] crcs = new int[size];
+            long[] sizes = new long[size];
+            for (int i = 0; i < size; i++) {
+                entries.add(in.readUTF());
+                crcs[i] = in.readInt();
+                sizes[i] = in.readLong();
+            }
+            // Bump the modification time so eviction only drops listings that have not been used recently
+            Files.setLastModifiedTime(listing, FileTime.fromMillis(System.currentTimeMillis()));
+            return Optional.of(new JarListing(entries.build(), crcs, sizes));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            log.debug("Ignoring unreadable jar entry listing '{}'", listing, e);
+            return Optional.empty();
+        }
+    }
+
+    private void writeListing(Path listing, JarListing entries) {
+        Path temp = null;
+        try {
+            Files.createDirectories(cacheDirectory());
+            temp = Files.createTempFile(cacheDirectory(), listing.getFileName().toString(), TEMP_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                List<String> paths = entries.paths();
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(paths.size());
+                for (int i = 0; i < paths.size(); i++) {
+                    out.writeUTF(paths.get(i));
+                    out.writeInt(entries.crc(i));
+                    out.writeLong(entries.size(i));
+                }
+            }
+            moveIntoPlace(temp, listing);
+        } catch (IOException e) {
+            // The cache is only an optimisation, the next build will simply read the jar again
+            log.debug("Unable to write jar entry listing '{}'", listing, e);
+        } finally {
+            // Only still there if the listing could not be written or moved into place
+            if (temp != null) {
+                deleteQuietly(temp.toFile());
+            }
+        }
+    }
+
+    private static void moveIntoPlace(Path temp, Path listing) throws IOException {
+        try {
+            Files.move(temp, listing, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, listing, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public final void close() {
+        inMemory.invalidateAll();
+        Path directory = cacheDirectory();
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        List<File> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths.map(Path::toFile).collect(Collectors.toList());
+        } catch (IOException e) {
+            log.debug("Unable to list jar entry index cache '{}'", directory, e);
+            return;
+        }
+
+        // Left behind by builds that were killed while writing a listing
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_FILE_MILLIS;
+        files.stream()
+                .filter(file -> file.getName().endsWith(TEMP_SUFFIX) && file.lastModified() < staleBefore)
+                .forEach(JarEntryIndexCache::deleteQuietly);
+
+        List<File> listings = files.stream()
+                .filter(file -> file.getName().endsWith(LISTING_SUFFIX))
+                .sorted(Comparator.comparingLong(File::lastModified).reversed())
+                .collect(Collectors.toList());
+
+        long maxSizeBytes = getParameters().getMaxSizeBytes().get();
+        long retainedBytes = 0;
+        for (File listing : listings) {
+            retainedBytes += listing.length();
+            if (retainedBytes > maxSizeBytes) {
+                deleteQuietly(listing);
+            }
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (!file.delete() && file.exists()) {
+            log.debug("Unable to delete '{}' from the jar entry index cache", file);
+        }
+    }
+
+    /**
+     * Where the listings one caller asked for came from, and the bytes read from disk for them: those of a listing
+     * stored by an earlier build, or those of a jar's central directory. Safe to update from several threads.
+     */
+    static final class Reads {
+        private final LongAdder jarsListed = new LongAdder();
+        private final LongAdder listingsLoaded = new LongAdder();
+        private final LongAdder listingsShared = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+
+        /** Listings made by reading the jar itself. */
+        long jarsListed() {
+            return jarsListed.sum();
+        }
+
+        /** Listings loaded from the cache directory, as stored by an earlier build. */
+        long listingsLoaded() {
+            return listingsLoaded.sum();
+        }
+
+        /** Listings already in memory, loaded by another caller in the same build. */
+        long listingsShared() {
+            return listingsShared.sum();
+        }
+
+        long bytesRead() {
+            return bytesRead.sum();
+        }
+    }
+
+    private Path cacheDirectory() {
+        return getParameters().getCacheDirectory().get().getAsFile().toPath();
+    }
+}
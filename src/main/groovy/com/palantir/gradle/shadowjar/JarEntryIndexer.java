@@ -0,0 +1,151 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.base.Utf8;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lists the file entries of many jars at once. Each jar is opened as a plain {@link ZipFile}, which only reads the
+ * central directory at the end of the archive, and the jars are spread across a bounded pool of worker threads.
+ */
+final class JarEntryIndexer {
+    private static final Logger log = LoggerFactory.getLogger(JarEntryIndexer.class);
+
+    // Fixed-size parts of a central directory file header and of the end of central directory record
+    private static final int CENTRAL_HEADER_BYTES = 46;
+    private static final int END_RECORD_BYTES = 22;
+
+    private JarEntryIndexer() {}
+
+    /** Returns the union of the non-directory entry names of all the given jars. */
+    static Set<String> indexEntries(Collection<File> jars) {
+        return indexEntries(jars, JarEntryIndexer::listEntries);
+    }
+
+    /** Like {@link #indexEntries(Collection)}, but obtains the entries of each jar from {@code lister}. */
+    static Set<String> indexEntries(Collection<File> jars, Function<File, List<String>> lister) {
+        Set<String> entries = ConcurrentHashMap.newKeySet();
+        if (jars.isEmpty()) {
+            return entries;
+        }
+
+        int parallelism = Math.min(jars.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(
+                parallelism,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("shadow-jar-indexer-%d")
+                        .setDaemon(true)
+                        .build());
+
+        try {
+            List<Future<?>> futures = new ArrayList<>(jars.size());
+            for (File jar : jars) {
+                futures.add(executor.submit(() -> entries.addAll(lister.apply(jar))));
+            }
+            for (Future<?> future : futures) {
+                awaitIndexing(future);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return entries;
+    }
+
+    private static void awaitIndexing(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while indexing jar files", e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** Reads the non-directory entry names of a single jar, failing on absolute paths. */
+    static List<String> listEntries(File jar) {
+        return list(jar, _bytes -> {}).paths();
+    }
+
+    /**
+     * Like {@link #listEntries(File)}, but with the CRC-32 and size of each entry, passing {@code bytesRead} the size
+     * of the central directory and end record that {@link ZipFile} reads to list them.
+     */
+    static JarListing list(File jar, LongConsumer bytesRead) {
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            boolean debugEnabled = log.isDebugEnabled();
+            ImmutableList.Builder<String> entries = ImmutableList.builderWithExpectedSize(zipFile.size());
+            int[] crcs = new int[zipFile.size()];
+            long[] sizes = new long[zipFile.size()];
+            int count = 0;
+            long centralDirectoryBytes = END_RECORD_BYTES + utf8Length(zipFile.getComment());
+            for (Enumeration<? extends ZipEntry> all = zipFile.entries(); all.hasMoreElements(); ) {
+                ZipEntry entry = all.nextElement();
+                String path = entry.getName();
+                centralDirectoryBytes += CENTRAL_HEADER_BYTES
+                        + utf8Length(path)
+                        + (entry.getExtra() == null ? 0 : entry.getExtra().length)
+                        + utf8Length(entry.getComment());
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (debugEnabled) {
+                    log.debug("Jar '{}' contains entry '{}'", jar.getName(), path);
+                }
+                Preconditions.checkState(
+                        !path.startsWith("/"), "Unexpected absolute path '%s' in jar '%s'", path, jar);
+                entries.add(path);
+                crcs[count] = (int) entry.getCrc();
+                sizes[count] = entry.getSize();
+                count++;
+            }
+            bytesRead.accept(centralDirectoryBytes);
+            return new JarListing(entries.build(), Arrays.copyOf(crcs, count), Arrays.copyOf(sizes, count));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not open jar file", e);
+        }
+    }
+
+    private static int utf8Length(String value) {
+        return value == null ? 0 : Utf8.encodedLength(value);
+    }
+}
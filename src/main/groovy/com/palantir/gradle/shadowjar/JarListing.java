@@ -0,0 +1,51 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+
+/**
+ * The file entries of a jar, with the CRC-32 and uncompressed size its central directory records for each, so entries
+ * of different jars can be compared without opening the jars again.
+ */
+final class JarListing {
+    private final ImmutableList<String> paths;
+    private final int[] crcs;
+    private final long[] sizes;
+
+    JarListing(ImmutableList<String> paths, int[] crcs, long[] sizes) {
+        this.paths = paths;
+        this.crcs = crcs;
+        this.sizes = sizes;
+    }
+
+    /** The entry paths, in the order of the jar's central directory; the list cannot be modified. */
+    List<String> paths() {
+        return paths;
+    }
+
+    /** The CRC-32 of the entry at {@code index} of {@link #paths()}. */
+    int crc(int index) {
+        return crcs[index];
+    }
+
+    /** The uncompressed size of the entry at {@code index} of {@link #paths()}. */
+    long size(int index) {
+        return sizes[index];
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.github.jengelman.gradle.plugins.shadow.transformers.CacheableTransformer;
+import com.github.jengelman.gradle.plugins.shadow.transformers.Transformer;
+import com.github.jengelman.gradle.plugins.shadow.transformers.TransformerContext;
+import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarFile;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.tasks.Internal;
+
+/**
+ * Merges the manifest of the shadow jar from {@code shadowJar}'s own manifest, which inherits the thin jar's, the
+ * manifests of the shaded jars and the attributes of the {@link RelocationPlan}. Precedence, highest first:
+ *
+ * <ol>
+ *   <li>the relocation plan's attributes, such as {@code Multi-Release}, which describe the shaded entries and so
+ *       replace any value the project set;
+ *   <li>the project's manifest, whose lines and per-entry sections are copied byte for byte;
+ *   <li>the shaded jars, of which only {@code Add-Opens} and {@code Add-Exports} are taken as they apply to the whole
+ *       jar: their packages are appended to the project's, each once, in classpath order.
+ * </ol>
+ *
+ * <p>{@code shadowJar} visits its own manifest first, so the first manifest is the project's. Shaded manifests are only
+ * read up to the end of their main section. The output only depends on the manifests and their order, and on the
+ * plan's attributes. Those are only handed over once {@code shadowJar} runs, so they are no input of this transformer;
+ * the plan file is an input of {@code shadowJar} itself, which keeps it cacheable.
+ */
+@CacheableTransformer
+final class ManifestMergingTransformer implements Transformer {
+    private static final byte[] EOL = {'\r', '\n'};
+    private static final byte[] CONTINUATION = {'\r', '\n', ' '};
+    private static final int MAX_LINE_LENGTH = 72;
+    private static final ImmutableList<String> MERGED_ATTRIBUTES = ImmutableList.of("Add-Exports", "Add-Opens");
+
+    private final Map<String, String> planAttributes = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Set<String>> mergedPackages = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private ProjectManifest projectManifest;
+
+    /** Sets the attributes of the relocation plan, replacing those of an earlier plan. */
+    void replacePlanAttributes(Map<String, String> attributes) {
+        planAttributes.clear();
+        planAttributes.putAll(attributes);
+    }
+
+    @Internal
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public boolean canTransformResource(FileTreeElement element) {
+        return JarFile.MANIFEST_NAME.equalsIgnoreCase(element.getRelativePath().getPathString());
+    }
+
+    @Override
+    public void transform(TransformerContext context) {
+        try (InputStream manifest = context.getIs()) {
+            LineReader lines = new LineReader(manifest);
+            if (projectManifest == null) {
+                projectManifest = ProjectManifest.read(lines);
+                for (Attribute attribute : projectManifest.attributes) {
+                    mergePackages(attribute.name, attribute.value());
+                }
+            } else {
+                mergePackagesOfMainSection(lines);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read manifest " + context.getPath(), e);
+        }
+    }
+
+    private void mergePackagesOfMainSection(LineReader lines) throws IOException {
+        String name = null;
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        while (lines.next() && !lines.isBlank()) {
+            if (lines.isContinuation()) {
+                if (name != null) {
+                    value.write(lines.line, 1, lines.contentLength() - 1);
+                }
+                continue;
+            }
+            if (name != null) {
+                mergePackages(name, new String(value.toByteArray(), StandardCharsets.UTF_8));
+            }
+            String lineName = lines.name();
+            name = MERGED_ATTRIBUTES.stream().anyMatch(lineName::equalsIgnoreCase) ? lineName : null;
+            value.reset();
+            if (name != null) {
+                value.write(lines.line, lines.valueOffset(), lines.contentLength() - lines.valueOffset());
+            }
+        }
+        if (name != null) {
+            mergePackages(name, new String(value.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private void mergePackages(String name, String value) {
+        for (String mergedName : MERGED_ATTRIBUTES) {
+            if (mergedName.equalsIgnoreCase(name)) {
+                Set<String> packages = mergedPackages.computeIfAbsent(mergedName, _name -> new LinkedHashSet<>());
+                packages.addAll(packagesOf(value));
+            }
+        }
+    }
+
+    private static List<String> packagesOf(String value) {
+        List<String> packages = new ArrayList<>();
+        for (String item : value.trim().split("\\s+")) {
+            if (!item.isEmpty()) {
+                packages.add(item);
+            }
+        }
+        return packages;
+    }
+
+    @Override
+    public boolean hasTransformedResource() {
+        return projectManifest != null || !planAttributes.isEmpty();
+    }
+
+    @Override
+    public void modifyOutputStream(ZipOutputStream os, boolean preserveFileTimestamps) {
+        ZipEntry entry = new ZipEntry(JarFile.MANIFEST_NAME);
+        entry.setTime(TransformerContext.getEntryTimestamp(preserveFileTimestamps, entry.getTime()));
+        try {
+            os.putNextEntry(entry);
+            writeManifest(os);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write " + JarFile.MANIFEST_NAME, e);
+        }
+        projectManifest = null;
+        mergedPackages.clear();
+    }
+
+    private void writeManifest(OutputStream os) throws IOException {
+        Map<String, String> unwrittenPlan = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        unwrittenPlan.putAll(planAttributes);
+        Map<String, Set<String>> unwrittenPackages = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        unwrittenPackages.putAll(mergedPackages);
+
+        if (projectManifest == null) {
+            writeAttribute(os, "Manifest-Version", "1.0");
+        } else {
+            for (Attribute attribute : projectManifest.attributes) {
+                if (planAttributes.containsKey(attribute.name)) {
+                    // Later duplicates of a replaced attribute are dropped along with the first
+                    String value = unwrittenPlan.remove(attribute.name);
+                    if (value != null) {
+                        writeAttribute(os, attribute.name, value);
+                    }
+                } else if (unwrittenPackages.containsKey(attribute.name)) {
+                    Set<String> packages = unwrittenPackages.remove(attribute.name);
+                    if (new ArrayList<>(packages).equals(packagesOf(attribute.value()))) {
+                        attribute.writeTo(os);
+                    } else {
+                        writeAttribute(os, attribute.name, String.join(" ", packages));
+                    }
+                } else {
+                    attribute.writeTo(os);
+                }
+            }
+            // A last line without a terminator is only terminated when something follows it
+            if (!projectManifest.terminated && !(unwrittenPlan.isEmpty() && unwrittenPackages.isEmpty())) {
+                os.write(EOL);
+            }
+        }
+
+        for (Map.Entry<String, String> attribute : unwrittenPlan.entrySet()) {
+            writeAttribute(os, attribute.getKey(), attribute.getValue());
+        }
+        for (Map.Entry<String, Set<String>> attribute : unwrittenPackages.entrySet()) {
+            writeAttribute(os, attribute.getKey(), String.join(" ", attribute.getValue()));
+        }
+
+        if (projectManifest == null) {
+            os.write(EOL);
+        } else {
+            os.write(projectManifest.sectionEnd);
+            os.write(projectManifest.rest);
+        }
+    }
+
+    /** Writes a main attribute, continuing lines longer than 72 bytes without splitting a character. */
+    private static void writeAttribute(OutputStream os, String name, String value) throws IOException {
+        byte[] line = (name + ": " + value).getBytes(StandardCharsets.UTF_8);
+        int start = 0;
+        int maxLength = MAX_LINE_LENGTH;
+        while (line.length - start > maxLength) {
+            int end = start + maxLength;
+            while ((line[end] & 0xC0) == 0x80) {
+                end--;
+            }
+            os.write(line, start, end - start);
+            os.write(CONTINUATION);
+            start = end;
+            // The leading space of a continuation line counts towards its length
+            maxLength = MAX_LINE_LENGTH - 1;
+        }
+        os.write(line, start, line.length - start);
+        os.write(EOL);
+    }
+
+    /** The main attributes of the first manifest as they were read, followed by the rest of it untouched. */
+    private static final class ProjectManifest {
+        private final List<Attribute> attributes = new ArrayList<>();
+        private byte[] sectionEnd = new byte[0];
+        private byte[] rest;
+        private boolean terminated = true;
+
+        static ProjectManifest read(LineReader lines) throws IOException {
+            ProjectManifest manifest = new ProjectManifest();
+            Attribute attribute = null;
+            while (lines.next()) {
+                if (lines.isBlank()) {
+                    manifest.sectionEnd = lines.raw();
+                    break;
+                }
+                if (lines.isContinuation() && attribute != null) {
+                    attribute.addContinuation(lines);
+                } else {
+                    attribute = new Attribute(lines);
+                    manifest.attributes.add(attribute);
+                }
+                manifest.terminated = lines.terminatorLength > 0;
+            }
+            manifest.rest = lines.remaining();
+            return manifest;
+        }
+    }
+
+    private static final class Attribute {
+        private final String name;
+        private final List<byte[]> rawLines = new ArrayList<>();
+        private final ByteArrayOutputStream value = new ByteArrayOutputStream();
+
+        Attribute(LineReader lines) {
+            this.name = lines.name();
+            rawLines.add(lines.raw());
+            value.write(lines.line, lines.valueOffset(), lines.contentLength() - lines.valueOffset());
+        }
+
+        void addContinuation(LineReader lines) {
+            rawLines.add(lines.raw());
+            value.write(lines.line, 1, lines.contentLength() - 1);
+        }
+
+        String value() {
+            return new String(value.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        void writeTo(OutputStream os) throws IOException {
+            for (byte[] rawLine : rawLines) {
+                os.write(rawLine);
+            }
+        }
+    }
+
+    /** Reads manifest lines together with their terminator, which may be CR LF, LF or CR. */
+    private static final class LineReader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[8192];
+        private int position;
+        private int limit;
+
+        private byte[] line = new byte[128];
+        private int length;
+        private int terminatorLength;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        /** Reads the next line, returning false at the end of the stream. */
+        boolean next() throws IOException {
+            length = 0;
+            terminatorLength = 0;
+            int next;
+            while ((next = read()) >= 0) {
+                append(next);
+                if (next == '\n') {
+                    terminatorLength = 1;
+                    return true;
+                }
+                if (next == '\r') {
+                    terminatorLength = 1;
+                    if (peek() == '\n') {
+                        append(read());
+                        terminatorLength = 2;
+                    }
+                    return true;
+                }
+            }
+            return length > 0;
+        }
+
+        int contentLength() {
+            return length - terminatorLength;
+        }
+
+        boolean isBlank() {
+            return contentLength() == 0;
+        }
+
+        boolean isContinuation() {
+            return contentLength() > 0 && line[0] == ' ';
+        }
+
+        /** The attribute name, which the jar spec limits to ASCII letters, digits, '-' and '_'. */
+        String name() {
+            return new String(line, 0, nameLength(), StandardCharsets.ISO_8859_1);
+        }
+
+        int valueOffset() {
+            int offset = Math.min(nameLength() + 1, contentLength());
+            return offset < contentLength() && line[offset] == ' ' ? offset + 1 : offset;
+        }
+
+        private int nameLength() {
+            for (int i = 0; i < contentLength(); i++) {
+                if (line[i] == ':') {
+                    return i;
+                }
+            }
+            return contentLength();
+        }
+
+        byte[] raw() {
+            return Arrays.copyOf(line, length);
+        }
+
+        /** Everything after the current line. */
+        byte[] remaining() throws IOException {
+            ByteArrayOutputStream rest = new ByteArrayOutputStream();
+            rest.write(buffer, position, limit - position);
+            position = limit;
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) >= 0) {
+                rest.write(chunk, 0, read);
+            }
+            return rest.toByteArray();
+        }
+
+        private void append(int value) {
+            if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = (byte) value;
+        }
+
+        private int read() throws IOException {
+            return fill() ? Byte.toUnsignedInt(buffer[position++]) : -1;
+        }
+
+        private int peek() throws IOException {
+            return fill() ? Byte.toUnsignedInt(buffer[position]) : -1;
+        }
+
+        private boolean fill() throws IOException {
+            if (position < limit) {
+                return true;
+            }
+            int read = in.read(buffer);
+            position = 0;
+            limit = Math.max(read, 0);
+            return read > 0;
+        }
+    }
+}
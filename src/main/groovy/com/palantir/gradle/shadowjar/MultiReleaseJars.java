@@ -0,0 +1,56 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+/** Path helpers for Multi-Release JAR Files, which are defined in https://openjdk.java.net/jeps/238. */
+final class MultiReleaseJars {
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+    private MultiReleaseJars() {}
+
+    /**
+     * Returns the length of the leading {@code META-INF/versions/<n>/} of {@code path}, or -1 if it does not have
+     * one. Equivalent to matching {@code ^META-INF/versions/\d+/}, without the regex.
+     */
+    static int versionedPrefixLength(String path) {
+        if (!path.startsWith(VERSIONS_PREFIX)) {
+            return -1;
+        }
+        int digitsStart = VERSIONS_PREFIX.length();
+        int index = digitsStart;
+        while (index < path.length() && isAsciiDigit(path.charAt(index))) {
+            index++;
+        }
+        if (index == digitsStart || index >= path.length() || path.charAt(index) != '/') {
+            return -1;
+        }
+        return index + 1;
+    }
+
+    static boolean isVersioned(String path) {
+        return versionedPrefixLength(path) >= 0;
+    }
+
+    /** Returns 'com/foo/whatever.class' for 'META-INF/versions/9/com/foo/whatever.class'. */
+    static String unversionedPath(String path) {
+        return path.substring(Math.max(versionedPrefixLength(path), 0));
+    }
+
+    private static boolean isAsciiDigit(char character) {
+        return character >= '0' && character <= '9';
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.google.common.collect.ImmutableMap;
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Collects coarse timings and counters for one task execution and writes them as JSON. Everything recorded is a
+ * handful of {@link System#nanoTime()} calls and counters that are computed anyway, so it is cheap enough to leave on.
+ */
+final class PerformanceReport {
+    private static final int SLOWEST_JARS = 10;
+
+    private final Map<String, Object> values = new LinkedHashMap<>();
+    private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+    private final Queue<JarTiming> jarTimings = new ConcurrentLinkedQueue<>();
+
+    PerformanceReport(String task) {
+        values.put("task", task);
+    }
+
+    /** Runs {@code action}, recording its duration under {@code phase}. */
+    <T> T time(String phase, Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            phaseMillis.put(phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /** Records how long one jar took; safe to call from several threads. */
+    void recordJar(File jar, int entries, long nanos) {
+        jarTimings.add(new JarTiming(jar.getName(), jar.length(), entries, nanos));
+    }
+
+    PerformanceReport put(String key, Object value) {
+        values.put(key, value);
+        return this;
+    }
+
+    void writeTo(File file) {
+        if (!phaseMillis.isEmpty()) {
+            values.put("phasesMillis", phaseMillis);
+        }
+        if (!jarTimings.isEmpty()) {
+            values.put("slowestJars", slowestJars());
+        }
+        try {
+            Files.createDirectories(file.toPath().getParent());
+            String json = JsonOutput.prettyPrint(JsonOutput.toJson(values));
+            Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write performance report " + file, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> readFrom(File file) {
+        return (Map<String, Object>) new JsonSlurper().parse(file, StandardCharsets.UTF_8.name());
+    }
+
+    private List<Map<String, Object>> slowestJars() {
+        return jarTimings.stream()
+                .sorted(Comparator.comparingLong((JarTiming timing) -> timing.nanos)
+                        .reversed())
+                .limit(SLOWEST_JARS)
+                .map(timing -> ImmutableMap.<String, Object>of(
+                        "jar", timing.name,
+                        "millis", TimeUnit.NANOSECONDS.toMillis(timing.nanos),
+                        "entries", timing.entries,
+                        "bytes", timing.bytes))
+                .collect(Collectors.toList());
+    }
+
+    private static final class JarTiming {
+        private final String name;
+        private final long bytes;
+        private final int entries;
+        private final long nanos;
+
+        private JarTiming(String name, long bytes, int entries, long nanos) {
+            this.name = name;
+            this.bytes = bytes;
+            this.entries = entries;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal zip reader that, unlike {@link java.util.zip.ZipFile}, gives access to the still-compressed bytes of each
+ * entry so they can be copied into another archive without being inflated and deflated again. Only the central
+ * directory and the fixed-size part of each local header are parsed; encrypted and split archives are not supported.
+ */
+final class RawZipFile implements Closeable {
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long MAGIC_32 = 0xffffffffL;
+
+    private final File file;
+    private final FileChannel channel;
+    private final List<Entry> entries;
+
+    RawZipFile(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.entries = Collections.unmodifiableList(readCentralDirectory());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Entries in central directory order. */
+    List<Entry> entries() {
+        return entries;
+    }
+
+    /** Returns the entry's data exactly as stored in the archive, still compressed if it was compressed. */
+    InputStream rawInputStream(Entry entry) throws IOException {
+        ByteBuffer header = read(entry.localHeaderOffset, LOCAL_FILE_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_FILE_HEADER) {
+            throw new ZipException("Invalid local file header for '" + entry.name + "' in " + file);
+        }
+        long dataOffset = entry.localHeaderOffset
+                + LOCAL_FILE_HEADER_SIZE
+                + Short.toUnsignedInt(header.getShort(26))
+                + Short.toUnsignedInt(header.getShort(28));
+        return new RegionInputStream(dataOffset, entry.compressedSize);
+    }
+
+    /** Returns the entry's uncompressed data. */
+    InputStream inputStream(Entry entry) throws IOException {
+        InputStream raw = rawInputStream(entry);
+        switch (entry.method) {
+            case ZipEntry.STORED:
+                return raw;
+            case ZipEntry.DEFLATED:
+                return new EntryInflaterInputStream(raw);
+            default:
+                throw new ZipException(
+                        "Unsupported compression method " + entry.method + " for '" + entry.name + "' in " + file);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(fileSize - tailSize, tailSize);
+
+        int endRecord = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                endRecord = i;
+                break;
+            }
+        }
+        if (endRecord < 0) {
+            throw new ZipException("No end of central directory record in " + file);
+        }
+
+        long entryCount = Short.toUnsignedInt(tail.getShort(endRecord + 10));
+        long directorySize = Integer.toUnsignedLong(tail.getInt(endRecord + 12));
+        long directoryOffset = Integer.toUnsignedLong(tail.getInt(endRecord + 16));
+
+        int locator = endRecord - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0 && tail.getInt(locator) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR) {
+            ByteBuffer zip64End = read(tail.getLong(locator + 8), 56);
+            if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                throw new ZipException("Invalid zip64 end of central directory record in " + file);
+            }
+            entryCount = zip64End.getLong(32);
+            directorySize = zip64End.getLong(40);
+            directoryOffset = zip64End.getLong(48);
+        }
+
+        ByteBuffer directory = read(directoryOffset, Math.toIntExact(directorySize));
+        List<Entry> result = new ArrayList<>((int) Math.min(entryCount, Integer.MAX_VALUE));
+        for (long i = 0; i < entryCount; i++) {
+            result.add(readCentralDirectoryHeader(directory));
+        }
+        return result;
+    }
+
+    private Entry readCentralDirectoryHeader(ByteBuffer directory) throws ZipException {
+        int start = directory.position();
+        if (directory.getInt(start) != CENTRAL_DIRECTORY_HEADER) {
+            throw new ZipException("Invalid central directory header in " + file);
+        }
+        int versionMadeBy = Short.toUnsignedInt(directory.getShort(start + 4));
+        int flags = Short.toUnsignedInt(directory.getShort(start + 8));
+        int method = Short.toUnsignedInt(directory.getShort(start + 10));
+        int dosTime = directory.getInt(start + 12);
+        long crc = Integer.toUnsignedLong(directory.getInt(start + 16));
+        long compressedSize = Integer.toUnsignedLong(directory.getInt(start + 20));
+        long size = Integer.toUnsignedLong(directory.getInt(start + 24));
+        int nameLength = Short.toUnsignedInt(directory.getShort(start + 28));
+        int extraLength = Short.toUnsignedInt(directory.getShort(start + 30));
+        int commentLength = Short.toUnsignedInt(directory.getShort(start + 32));
+        int externalAttributes = directory.getInt(start + 38);
+        long localHeaderOffset = Integer.toUnsignedLong(directory.getInt(start + 42));
+
+        if ((flags & 1) != 0) {
+            throw new ZipException("Encrypted entries are not supported in " + file);
+        }
+
+        byte[] nameBytes = new byte[nameLength];
+        directory.position(start + 46);
+        directory.get(nameBytes);
+        String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+        // Zip64 extended information only contains the fields whose 32-bit value is saturated, in this order
+        int extra = start + 46 + nameLength;
+        int extraEnd = extra + extraLength;
+        while (extra + 4 <= extraEnd) {
+            int id = Short.toUnsignedInt(directory.getShort(extra));
+            int length = Short.toUnsignedInt(directory.getShort(extra + 2));
+            if (id == ZIP64_EXTRA_ID) {
+                int field = extra + 4;
+                if (size == MAGIC_32) {
+                    size = directory.getLong(field);
+                    field += 8;
+                }
+                if (compressedSize == MAGIC_32) {
+                    compressedSize = directory.getLong(field);
+                    field += 8;
+                }
+                if (localHeaderOffset == MAGIC_32) {
+                    localHeaderOffset = directory.getLong(field);
+                }
+            }
+            extra += 4 + length;
+        }
+
+        directory.position(extraEnd + commentLength);
+        return new Entry(
+                name,
+                method,
+                dosTime,
+                crc,
+                compressedSize,
+                size,
+                localHeaderOffset,
+                versionMadeBy >>> 8,
+                externalAttributes);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /** Reads a region of the archive with positional reads, so streams of different entries do not interfere. */
+    private final class RegionInputStream extends InputStream {
+        private long position;
+        private final long end;
+
+        private RegionInputStream(long position, long length) {
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : Byte.toUnsignedInt(single[0]);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int toRead = (int) Math.min(length, end - position);
+            int read = channel.read(ByteBuffer.wrap(buffer, offset, toRead), position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + file);
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(end - position, Integer.MAX_VALUE);
+        }
+    }
+
+    /** Same as the stream used by {@link java.util.zip.ZipFile}: frees the inflater and pads truncated input. */
+    private static final class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof;
+
+        private EntryInflaterInputStream(InputStream raw) {
+            super(raw, new Inflater(true));
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+
+    static final class Entry {
+        private final String name;
+        private final int method;
+        private final int dosTime;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+        private final int hostSystem;
+        private final int externalAttributes;
+
+        private Entry(
+                String name,
+                int method,
+                int dosTime,
+                long crc,
+                long compressedSize,
+                long size,
+                long localHeaderOffset,
+                int hostSystem,
+                int externalAttributes) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+            this.hostSystem = hostSystem;
+            this.externalAttributes = externalAttributes;
+        }
+
+        String name() {
+            return name;
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        int method() {
+            return method;
+        }
+
+        /** MS-DOS time in the low 16 bits and date in the high 16 bits, as stored in the archive. */
+        int dosTime() {
+            return dosTime;
+        }
+
+        long crc() {
+            return crc;
+        }
+
+        long compressedSize() {
+            return compressedSize;
+        }
+
+        long size() {
+            return size;
+        }
+
+        /** The upper byte of "version made by", which says how to read {@link #externalAttributes}, 3 being unix. */
+        int hostSystem() {
+            return hostSystem;
+        }
+
+        /** Host-specific file attributes, such as the unix file mode in the high 16 bits. */
+        int externalAttributes() {
+            return externalAttributes;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Zip writer that can copy entries from a {@link RawZipFile} as raw compressed bytes, next to entries whose content is
+ * given in full and compressed at a chosen level. Sizes and CRCs are always known up front, so no data descriptors are
+ * written, and zip64 records are only added when the archive needs them.
+ *
+ * <p>Entries are written one at a time, but {@link #compress} may be called from several threads so that content can
+ * be compressed ahead of writing it.
+ */
+final class RawZipWriter implements Closeable {
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long MAX_32 = 0xffffffffL;
+    private static final int MAX_16 = 0xffff;
+
+    /** {@link Deflater} level meaning "store entries uncompressed". */
+    static final int STORED_LEVEL = Deflater.NO_COMPRESSION;
+
+    private final CountingOutputStream out;
+    private final int level;
+    /** Deflaters not currently compressing anything, so each thread calling {@link #compress} can reuse one. */
+    private final Queue<Deflater> idleDeflaters = new ConcurrentLinkedQueue<>();
+    private final List<CentralRecord> records = new ArrayList<>();
+
+    /** {@code level} is a {@link Deflater} level, where {@link #STORED_LEVEL} writes STORED entries. */
+    RawZipWriter(OutputStream out, int level) {
+        Preconditions.checkArgument(
+                level >= Deflater.DEFAULT_COMPRESSION && level <= Deflater.BEST_COMPRESSION,
+                "Invalid deflater level %s",
+                level);
+        this.out = new CountingOutputStream(out);
+        this.level = level;
+    }
+
+    /**
+     * Copies {@code entry} from {@code source} under {@code name} without decompressing it, keeping its file
+     * attributes, such as unix file modes.
+     */
+    void writeRaw(String name, RawZipFile source, RawZipFile.Entry entry) throws IOException {
+        writeRaw(name, source, entry, entry.dosTime());
+    }
+
+    /** Like {@link #writeRaw(String, RawZipFile, RawZipFile.Entry)}, but with the given modification time. */
+    void writeRaw(String name, RawZipFile source, RawZipFile.Entry entry, int dosTime) throws IOException {
+        CentralRecord record = new CentralRecord(
+                name,
+                entry.method(),
+                dosTime,
+                entry.crc(),
+                entry.compressedSize(),
+                entry.size(),
+                out.getCount(),
+                entry.hostSystem(),
+                entry.externalAttributes());
+        writeLocalHeader(record);
+        try (InputStream raw = source.rawInputStream(entry)) {
+            ByteStreams.copy(raw, out);
+        }
+        records.add(record);
+    }
+
+    /** Writes an empty directory entry, whose {@code name} ends in '/'. */
+    void writeDirectory(String name, int dosTime) throws IOException {
+        writeCompressed(name, new Compressed(ZipEntry.STORED, 0, new byte[0], 0), dosTime);
+    }
+
+    /** Writes {@code content} under {@code name}, compressed at this writer's level. */
+    void write(String name, byte[] content, int dosTime) throws IOException {
+        writeCompressed(name, compress(content), dosTime);
+    }
+
+    /** Compresses {@code content} at this writer's level; safe to call from several threads. */
+    Compressed compress(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if (level == STORED_LEVEL) {
+            return new Compressed(ZipEntry.STORED, crc.getValue(), content, content.length);
+        }
+
+        Deflater deflater = idleDeflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2 + 64);
+            try (DeflaterOutputStream deflating = new DeflaterOutputStream(compressed, deflater)) {
+                deflating.write(content);
+            }
+            return new Compressed(ZipEntry.DEFLATED, crc.getValue(), compressed.toByteArray(), content.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not compress in memory", e);
+        } finally {
+            deflater.reset();
+            idleDeflaters.add(deflater);
+        }
+    }
+
+    /** Writes content returned by {@link #compress} under {@code name}. */
+    void writeCompressed(String name, Compressed content, int dosTime) throws IOException {
+        CentralRecord record = new CentralRecord(
+                name, content.method, dosTime, content.crc, content.data.length, content.size, out.getCount(), 0, 0);
+        writeLocalHeader(record);
+        out.write(content.data);
+        records.add(record);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long directoryOffset = out.getCount();
+            for (CentralRecord record : records) {
+                writeCentralHeader(record);
+            }
+            long directorySize = out.getCount() - directoryOffset;
+            writeEnd(directoryOffset, directorySize);
+            out.close();
+        } finally {
+            Deflater deflater;
+            while ((deflater = idleDeflaters.poll()) != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    private void writeLocalHeader(CentralRecord record) throws IOException {
+        boolean zip64 = record.size >= MAX_32 || record.compressedSize >= MAX_32;
+        ByteBuffer header = buffer(30 + record.name.length + (zip64 ? 20 : 0));
+        header.putInt(LOCAL_FILE_HEADER);
+        header.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFAULT));
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) record.method);
+        header.putInt(record.dosTime);
+        header.putInt((int) record.crc);
+        header.putInt((int) (zip64 ? MAX_32 : record.compressedSize));
+        header.putInt((int) (zip64 ? MAX_32 : record.size));
+        header.putShort((short) record.name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        header.put(record.name);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID);
+            header.putShort((short) 16);
+            header.putLong(record.size);
+            header.putLong(record.compressedSize);
+        }
+        out.write(header.array());
+    }
+
+    private void writeCentralHeader(CentralRecord record) throws IOException {
+        boolean sizeOverflow = record.size >= MAX_32;
+        boolean compressedSizeOverflow = record.compressedSize >= MAX_32;
+        boolean offsetOverflow = record.localHeaderOffset >= MAX_32;
+        int extraLength = (sizeOverflow ? 8 : 0) + (compressedSizeOverflow ? 8 : 0) + (offsetOverflow ? 8 : 0);
+        boolean zip64 = extraLength > 0;
+
+        ByteBuffer header = buffer(46 + record.name.length + (zip64 ? 4 + extraLength : 0));
+        header.putInt(CENTRAL_DIRECTORY_HEADER);
+        header.putShort((short) ((record.hostSystem << 8) | (zip64 ? VERSION_ZIP64 : VERSION_DEFAULT)));
+        header.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION_DEFAULT));
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) record.method);
+        header.putInt(record.dosTime);
+        header.putInt((int) record.crc);
+        header.putInt((int) (compressedSizeOverflow ? MAX_32 : record.compressedSize));
+        header.putInt((int) (sizeOverflow ? MAX_32 : record.size));
+        header.putShort((short) record.name.length);
+        header.putShort((short) (zip64 ? 4 + extraLength : 0));
+        header.putShort((short) 0); // comment length
+        header.putShort((short) 0); // disk number
+        header.putShort((short) 0); // internal attributes
+        header.putInt(record.externalAttributes);
+        header.putInt((int) (offsetOverflow ? MAX_32 : record.localHeaderOffset));
+        header.put(record.name);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID);
+            header.putShort((short) extraLength);
+            if (sizeOverflow) {
+                header.putLong(record.size);
+            }
+            if (compressedSizeOverflow) {
+                header.putLong(record.compressedSize);
+            }
+            if (offsetOverflow) {
+                header.putLong(record.localHeaderOffset);
+            }
+        }
+        out.write(header.array());
+    }
+
+    private void writeEnd(long directoryOffset, long directorySize) throws IOException {
+        long entryCount = records.size();
+        boolean zip64 = entryCount >= MAX_16 || directorySize >= MAX_32 || directoryOffset >= MAX_32;
+
+        if (zip64) {
+            long zip64EndOffset = out.getCount();
+            ByteBuffer zip64End = buffer(56 + 20);
+            zip64End.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+            zip64End.putLong(44); // size of the remaining record
+            zip64End.putShort((short) VERSION_ZIP64);
+            zip64End.putShort((short) VERSION_ZIP64);
+            zip64End.putInt(0); // this disk
+            zip64End.putInt(0); // central directory disk
+            zip64End.putLong(entryCount);
+            zip64End.putLong(entryCount);
+            zip64End.putLong(directorySize);
+            zip64End.putLong(directoryOffset);
+            zip64End.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR);
+            zip64End.putInt(0); // disk with the zip64 end record
+            zip64End.putLong(zip64EndOffset);
+            zip64End.putInt(1); // total disks
+            out.write(zip64End.array());
+        }
+
+        ByteBuffer end = buffer(22);
+        end.putInt(END_OF_CENTRAL_DIRECTORY);
+        end.putShort((short) 0); // this disk
+        end.putShort((short) 0); // central directory disk
+        end.putShort((short) Math.min(entryCount, MAX_16));
+        end.putShort((short) Math.min(entryCount, MAX_16));
+        end.putInt((int) Math.min(directorySize, MAX_32));
+        end.putInt((int) Math.min(directoryOffset, MAX_32));
+        end.putShort((short) 0); // comment length
+        out.write(end.array());
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Content compressed ahead of being written, along with what its entry headers need. */
+    static final class Compressed {
+        private final int method;
+        private final long crc;
+        private final byte[] data;
+        private final long size;
+
+        private Compressed(int method, long crc, byte[] data, long size) {
+            this.method = method;
+            this.crc = crc;
+            this.data = data;
+            this.size = size;
+        }
+    }
+
+    private static final class CentralRecord {
+        private final byte[] name;
+        private final int method;
+        private final int dosTime;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+        private final int hostSystem;
+        private final int externalAttributes;
+
+        private CentralRecord(
+                String name,
+                int method,
+                int dosTime,
+                long crc,
+                long compressedSize,
+                long size,
+                long localHeaderOffset,
+                int hostSystem,
+                int externalAttributes) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+            this.hostSystem = hostSystem;
+            this.externalAttributes = externalAttributes;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable set of jar entry paths stored as a trie keyed on '/'-separated path segments. Segment strings are
+ * interned, so the package names shared between thousands of entries are only stored once, and lookups walk the
+ * query string in place rather than allocating substrings.
+ *
+ * <p>Paths ending in {@code .class} are stored without the suffix and flagged as class files, which lets
+ * {@link #containsPathOrClass(String)} answer "is {@code path} or {@code path + ".class"} present" in a single walk.
+ */
+final class RelocatableIndex {
+    private static final String CLASS_SUFFIX = ".class";
+
+    private static final byte FILE = 1;
+    private static final byte CLASS_FILE = 2;
+
+    private static final String[] NO_NAMES = new String[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final Node root;
+    private final int size;
+
+    private RelocatableIndex(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    static RelocatableIndex of(Iterable<String> paths) {
+        Interner<String> segments = Interners.newStrongInterner();
+        MutableNode root = new MutableNode();
+        int size = 0;
+        for (String path : paths) {
+            boolean isClass = path.endsWith(CLASS_SUFFIX);
+            int end = isClass ? path.length() - CLASS_SUFFIX.length() : path.length();
+            MutableNode node = root;
+            int start = 0;
+            int slash;
+            while ((slash = path.indexOf('/', start)) >= 0 && slash < end) {
+                node = node.child(segments.intern(path.substring(start, slash)));
+                start = slash + 1;
+            }
+            node = node.child(segments.intern(path.substring(start, end)));
+            byte flag = isClass ? CLASS_FILE : FILE;
+            if ((node.flags & flag) == 0) {
+                node.flags |= flag;
+                size++;
+            }
+        }
+        return new RelocatableIndex(root.freeze(), size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Returns true if exactly {@code path} is in the index. */
+    boolean contains(String path) {
+        return matches(path, false);
+    }
+
+    /** Returns true if either {@code path} or {@code path + ".class"} is in the index. */
+    boolean containsPathOrClass(String path) {
+        return matches(path, true);
+    }
+
+    private boolean matches(String path, boolean orClass) {
+        Node parent = root;
+        int start = 0;
+        int slash;
+        while ((slash = path.indexOf('/', start)) >= 0) {
+            parent = parent.child(path, start, slash);
+            if (parent == null) {
+                return false;
+            }
+            start = slash + 1;
+        }
+
+        int end = path.length();
+        Node leaf = parent.child(path, start, end);
+        if (leaf != null && (leaf.flags & (orClass ? FILE | CLASS_FILE : FILE)) != 0) {
+            return true;
+        }
+
+        if (path.endsWith(CLASS_SUFFIX) && end - CLASS_SUFFIX.length() >= start) {
+            Node withoutSuffix = parent.child(path, start, end - CLASS_SUFFIX.length());
+            return withoutSuffix != null && (withoutSuffix.flags & CLASS_FILE) != 0;
+        }
+
+        return false;
+    }
+
+    private static final class Node {
+        /** Sorted by {@link String#compareTo(String)}. */
+        private final String[] names;
+
+        private final Node[] children;
+        private final byte flags;
+
+        private Node(String[] names, Node[] children, byte flags) {
+            this.names = names;
+            this.children = children;
+            this.flags = flags;
+        }
+
+        /** Returns the child whose name equals {@code path.substring(start, end)}, or null. */
+        Node child(String path, int start, int end) {
+            int low = 0;
+            int high = names.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compareRegion(names[mid], path, start, end);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+
+        private static int compareRegion(String name, String path, int start, int end) {
+            int regionLength = end - start;
+            int limit = Math.min(name.length(), regionLength);
+            for (int i = 0; i < limit; i++) {
+                int diff = name.charAt(i) - path.charAt(start + i);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return name.length() - regionLength;
+        }
+    }
+
+    private static final class MutableNode {
+        private final Map<String, MutableNode> children = new TreeMap<>();
+        private byte flags;
+
+        MutableNode child(String name) {
+            return children.computeIfAbsent(name, _ignored -> new MutableNode());
+        }
+
+        Node freeze() {
+            if (children.isEmpty()) {
+                return new Node(NO_NAMES, NO_CHILDREN, flags);
+            }
+            String[] names = new String[children.size()];
+            Node[] frozen = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<String, MutableNode> entry : children.entrySet()) {
+                names[i] = entry.getKey();
+                frozen[i] = entry.getValue().freeze();
+                i++;
+            }
+            return new Node(names, frozen, flags);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.base.Throwables;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import org.gradle.api.artifacts.transform.CacheableTransform;
+import org.gradle.api.artifacts.transform.InputArtifact;
+import org.gradle.api.artifacts.transform.TransformAction;
+import org.gradle.api.artifacts.transform.TransformOutputs;
+import org.gradle.api.artifacts.transform.TransformParameters;
+import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+
+/**
+ * Relocates a single shaded dependency jar according to a {@link RelocationPlan}. Gradle caches the result keyed on
+ * the jar and the whole plan, as any jar may refer to the classes of any other. The project's own classes are not
+ * part of the plan, so changing them never re-relocates a dependency, and a dependency whose entries keep their paths
+ * only re-relocates its own jar. Adding or removing a shaded entry, or changing the manifest attributes the plan
+ * carries, changes the plan and so re-relocates every jar. Service files are left alone for {@code shadowJar} to merge
+ * and relocate.
+ *
+ * <p>Only classes that mention a relocated class are rewritten, see {@link ClassFileRelocator}; every other entry is
+ * renamed but keeps its compressed bytes, so resources and untouched classes are never deflated again.
+ *
+ * <p>With {@link Parameters#getParallel()} set, classes are read, relocated and compressed on the threads of the
+ * {@link RelocationExecutor} shared by all transforms, while the transform's own thread writes them out in their
+ * original order. The output is the same byte for byte either way.
+ */
+@CacheableTransform
+public abstract class RelocateJarTransform implements TransformAction<RelocateJarTransform.Parameters> {
+    // Requested only by the shadeTransitively view of incremental mode, so no other resolution sees this transform
+    static final String RELOCATED_JAR_TYPE = "com.palantir.shadow-jar.relocated-jar";
+
+    // Every jar of a project is relocated with the same plan, so only parse it once. Plans are keyed by their content,
+    // as a plan rewritten in place can keep its length and, within the file system's granularity, its mtime
+    private static final Cache<String, ShadedNameRemapper> REMAPPERS =
+            Caffeine.newBuilder().maximumSize(4).build();
+
+    // Bounds the relocated classes held in memory while the writer catches up
+    private static final int MAX_PENDING_ENTRIES = 4 * RelocationExecutor.threads();
+
+    public interface Parameters extends TransformParameters {
+        @InputFile
+        @PathSensitive(PathSensitivity.NONE)
+        RegularFileProperty getRelocationPlan();
+
+        /** {@link java.util.zip.Deflater} level for relocated classes, where 0 stores them uncompressed. */
+        @Input
+        Property<Integer> getCompressionLevel();
+
+        /** Relocate classes on several threads; the output does not depend on it. */
+        @Internal
+        Property<Boolean> getParallel();
+
+        /** The threads to relocate classes on when {@link #getParallel()} is set. */
+        @Internal
+        Property<RelocationExecutor> getExecutor();
+    }
+
+    @InputArtifact
+    @Classpath
+    public abstract Provider<FileSystemLocation> getInputArtifact();
+
+    @Override
+    public final void transform(TransformOutputs outputs) {
+        File jar = getInputArtifact().get().getAsFile();
+        String name = jar.getName();
+        String baseName = name.endsWith(".jar") ? name.substring(0, name.length() - ".jar".length()) : name;
+        relocate(
+                jar,
+                outputs.file(baseName + "-relocated.jar"),
+                remapper(),
+                getParameters().getCompressionLevel().get(),
+                getParameters().getParallel().get()
+                        ? getParameters().getExecutor().get().executor()
+                        : MoreExecutors.directExecutor());
+    }
+
+    private ShadedNameRemapper remapper() {
+        File plan = getParameters().getRelocationPlan().get().getAsFile();
+        String key;
+        try {
+            key = Hashing.sha256().hashBytes(Files.readAllBytes(plan.toPath())).toString();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read relocation plan " + plan, e);
+        }
+        return REMAPPERS.get(key, _key -> ShadedNameRemapper.fromPlan(RelocationPlan.readFrom(plan)));
+    }
+
+    /** Relocates {@code input} into {@code output}, relocating and compressing classes on {@code executor}. */
+    static void relocate(
+            File input, File output, ShadedNameRemapper remapper, int compressionLevel, Executor executor) {
+        ClassFileRelocator classRelocator = new ClassFileRelocator(remapper);
+        Set<String> written = new HashSet<>();
+        Deque<PendingEntry> pending = new ArrayDeque<>();
+        try (RawZipFile zipFile = new RawZipFile(input);
+                RawZipWriter out = new RawZipWriter(
+                        new BufferedOutputStream(Files.newOutputStream(output.toPath())), compressionLevel)) {
+            try {
+                for (RawZipFile.Entry entry : zipFile.entries()) {
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+
+                    String path = remapper.mapEntryPath(entry.name());
+                    if (!written.add(path)) {
+                        continue;
+                    }
+
+                    CompletableFuture<Optional<RawZipWriter.Compressed>> relocated = entry.name().endsWith(".class")
+                            ? CompletableFuture.supplyAsync(
+                                    () -> relocateClass(zipFile, entry, classRelocator, out), executor)
+                            : CompletableFuture.completedFuture(Optional.empty());
+                    pending.add(new PendingEntry(path, entry, relocated));
+                    if (pending.size() > MAX_PENDING_ENTRIES) {
+                        pending.poll().writeTo(out, zipFile);
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    pending.poll().writeTo(out, zipFile);
+                }
+            } finally {
+                // Only left over after a failure, and the jar they would read is about to be closed
+                pending.forEach(entry -> entry.relocated.cancel(false));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not relocate jar file " + input, e);
+        }
+    }
+
+    /** Returns the compressed, relocated class, or empty if its original bytes can be copied as they are. */
+    private static Optional<RawZipWriter.Compressed> relocateClass(
+            RawZipFile zipFile, RawZipFile.Entry entry, ClassFileRelocator classRelocator, RawZipWriter out) {
+        byte[] classBytes;
+        try (InputStream in = zipFile.inputStream(entry)) {
+            classBytes = ByteStreams.toByteArray(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + entry.name(), e);
+        }
+        return classRelocator.relocate(classBytes, entry.name()).map(out::compress);
+    }
+
+    private static final class PendingEntry {
+        private final String path;
+        private final RawZipFile.Entry entry;
+        private final CompletableFuture<Optional<RawZipWriter.Compressed>> relocated;
+
+        private PendingEntry(
+                String path,
+                RawZipFile.Entry entry,
+                CompletableFuture<Optional<RawZipWriter.Compressed>> relocated) {
+            this.path = path;
+            this.entry = entry;
+            this.relocated = relocated;
+        }
+
+        private void writeTo(RawZipWriter out, RawZipFile zipFile) throws IOException {
+            Optional<RawZipWriter.Compressed> content;
+            try {
+                content = relocated.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                Throwables.throwIfUnchecked(e.getCause());
+                throw e;
+            }
+
+            if (content.isPresent()) {
+                out.writeCompressed(path, content.get(), entry.dosTime());
+            } else {
+                // Resources and unchanged classes only move, so their compressed bytes can be copied as they are
+                out.writeRaw(path, zipFile, entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.specs.Spec;
+
+/**
+ * Assembles the shadow jar of incremental mode without remapping the relocated intermediates a second time.
+ * {@code shadowJar} skips every entry of theirs that already carries a shaded name, so shadow only remaps the project's
+ * own classes, while the intermediates' service files and manifests still go through its transformers. The skipped
+ * entries are then appended to the jar shadow wrote, copying their compressed bytes as they are.
+ *
+ * <p>The default mode never uses this: there shadow relocates the shaded classes itself, running any relocators and
+ * transformers the build script added.
+ */
+final class RelocatedJarAppender {
+    // What shadow gives every entry when file timestamps are not preserved: 1980-02-01 00:00, in MS-DOS format
+    private static final int CONSTANT_DOS_TIME = ((2 << 5) | 1) << 16;
+
+    private final Set<String> skippedEntries = new HashSet<>();
+
+    /**
+     * Returns an exclude spec for {@code shadowJar} that skips the entries with shaded names and remembers them. It
+     * must be the last exclude added: Gradle only consults it for entries that the includes and every earlier exclude
+     * let through, so exactly the entries shadow would have copied are appended.
+     */
+    Spec<FileTreeElement> skipShadedEntries(ShadedNameRemapper remapper) {
+        skippedEntries.clear();
+        return element -> {
+            if (element.isDirectory() || !remapper.isShadedPath(element.getPath())) {
+                return false;
+            }
+            skippedEntries.add(element.getPath());
+            return true;
+        };
+    }
+
+    /**
+     * Appends the skipped entries of {@code relocatedJars} to {@code jar}, the first jar to contain an entry winning
+     * like in shadow, so the project's own entries stay ahead of them. Parent directories are added the way shadow
+     * adds them.
+     */
+    void appendTo(File jar, Iterable<File> relocatedJars, boolean preserveFileTimestamps) {
+        if (skippedEntries.isEmpty()) {
+            return;
+        }
+
+        Path temp = jar.toPath().resolveSibling(jar.getName() + ".tmp");
+        try {
+            try (RawZipFile shadowed = new RawZipFile(jar);
+                    RawZipWriter out = new RawZipWriter(
+                            new BufferedOutputStream(Files.newOutputStream(temp)), RawZipWriter.STORED_LEVEL)) {
+                Set<String> written = new HashSet<>();
+                for (RawZipFile.Entry entry : shadowed.entries()) {
+                    written.add(entry.name());
+                    out.writeRaw(entry.name(), shadowed, entry);
+                }
+                for (File relocatedJar : relocatedJars) {
+                    append(relocatedJar, out, written, preserveFileTimestamps);
+                }
+            }
+            Files.move(temp, jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not append relocated jars to " + jar, e);
+        } finally {
+            skippedEntries.clear();
+        }
+    }
+
+    private void append(File relocatedJar, RawZipWriter out, Set<String> written, boolean preserveFileTimestamps)
+            throws IOException {
+        try (RawZipFile relocated = new RawZipFile(relocatedJar)) {
+            for (RawZipFile.Entry entry : relocated.entries()) {
+                String path = entry.name();
+                if (!skippedEntries.contains(path) || written.contains(path)) {
+                    continue;
+                }
+                int dosTime = preserveFileTimestamps ? entry.dosTime() : CONSTANT_DOS_TIME;
+                for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+                    String directory = path.substring(0, slash + 1);
+                    if (written.add(directory)) {
+                        out.writeDirectory(directory, dosTime);
+                    }
+                }
+                written.add(path);
+                out.writeRaw(path, relocated, entry, dosTime);
+            }
+        }
+    }
+}
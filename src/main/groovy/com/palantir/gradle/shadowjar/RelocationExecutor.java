@@ -0,0 +1,68 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * The threads that {@link RelocateJarTransform} relocates classes on in parallel. They are shared by every transform
+ * of the build, so Gradle running many transforms at once does not multiply their number, and shut down when the
+ * build finishes rather than left behind in the daemon.
+ */
+public abstract class RelocationExecutor implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private ExecutorService executor;
+
+    static Provider<RelocationExecutor> register(Project project) {
+        return project.getGradle()
+                .getSharedServices()
+                .registerIfAbsent("shadowJarRelocationExecutor", RelocationExecutor.class, _spec -> {});
+    }
+
+    /** Number of threads classes are relocated on. */
+    static int threads() {
+        return THREADS;
+    }
+
+    /** Returns the pool, starting its threads on first use, so builds that relocate nothing in parallel have none. */
+    final synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(
+                    THREADS,
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("shadow-jar-relocation-%d")
+                            .setDaemon(true)
+                            .build());
+        }
+        return executor;
+    }
+
+    @Override
+    public final synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
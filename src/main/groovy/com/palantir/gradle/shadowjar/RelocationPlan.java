@@ -0,0 +1,119 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Everything {@code shadowJar} needs from {@code relocateShadowJar}: the shaded prefix, the entry paths that must be
+ * relocated and any attributes to append to the manifest. The plan is written as a small versioned binary file so
+ * that {@code relocateShadowJar} has a real output that can be restored from the build cache.
+ */
+final class RelocationPlan {
+    private static final int MAGIC = 0x53484a50; // "SHJP"
+    private static final int FORMAT_VERSION = 1;
+
+    private final String shadedPrefix;
+    private final SortedSet<String> relocatablePaths;
+    private final boolean multiRelease;
+    private final Map<String, String> manifestAttributes;
+
+    RelocationPlan(
+            String shadedPrefix,
+            Iterable<String> relocatablePaths,
+            boolean multiRelease,
+            Map<String, String> manifestAttributes) {
+        this.shadedPrefix = shadedPrefix;
+        this.relocatablePaths = ImmutableSortedSet.copyOf(relocatablePaths);
+        this.multiRelease = multiRelease;
+        this.manifestAttributes = ImmutableMap.copyOf(manifestAttributes);
+    }
+
+    String shadedPrefix() {
+        return shadedPrefix;
+    }
+
+    SortedSet<String> relocatablePaths() {
+        return relocatablePaths;
+    }
+
+    boolean multiRelease() {
+        return multiRelease;
+    }
+
+    Map<String, String> manifestAttributes() {
+        return manifestAttributes;
+    }
+
+    void writeTo(File file) {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file.toPath()))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(shadedPrefix);
+            out.writeBoolean(multiRelease);
+            out.writeInt(manifestAttributes.size());
+            for (Map.Entry<String, String> attribute : manifestAttributes.entrySet()) {
+                out.writeUTF(attribute.getKey());
+                out.writeUTF(attribute.getValue());
+            }
+            out.writeInt(relocatablePaths.size());
+            for (String path : relocatablePaths) {
+                out.writeUTF(path);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write relocation plan " + file, e);
+        }
+    }
+
+    static RelocationPlan readFrom(File file) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file.toPath()))))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IllegalStateException("Unsupported relocation plan format in " + file);
+            }
+            String shadedPrefix = in.readUTF();
+            boolean multiRelease = in.readBoolean();
+            int attributeCount = in.readInt();
+            ImmutableMap.Builder<String, String> manifestAttributes = ImmutableMap.builder();
+            for (int i = 0; i < attributeCount; i++) {
+                manifestAttributes.put(in.readUTF(), in.readUTF());
+            }
+            int pathCount = in.readInt();
+            ImmutableSortedSet.Builder<String> relocatablePaths = ImmutableSortedSet.naturalOrder();
+            for (int i = 0; i < pathCount; i++) {
+                relocatablePaths.add(in.readUTF());
+            }
+            return new RelocationPlan(
+                    shadedPrefix, relocatablePaths.build(), multiRelease, manifestAttributes.buildOrThrow());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read relocation plan " + file, e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.github.jengelman.gradle.plugins.shadow.ShadowStats;
+import com.github.jengelman.gradle.plugins.shadow.relocation.RelocateClassContext;
+import com.github.jengelman.gradle.plugins.shadow.relocation.Relocator;
+import com.github.jengelman.gradle.plugins.shadow.transformers.CacheableTransformer;
+import com.github.jengelman.gradle.plugins.shadow.transformers.Transformer;
+import com.github.jengelman.gradle.plugins.shadow.transformers.TransformerContext;
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipOutputStream;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.tasks.Internal;
+
+/**
+ * Merges the {@code META-INF/services} files of the project and of all shaded jars, relocating service and provider
+ * names with the relocators added to {@code shadowJar} and then the relocation plan. Replaces shadow's
+ * {@code ServiceFileTransformer}, which asks every relocator about every line of every file, building a new relocation
+ * context each time.
+ *
+ * <p>Each file is read once, line by line, and its lines are collected under the original service name, so a provider
+ * listed by several jars is kept once, in classpath order, along with any comment on its line. Comment lines are kept
+ * too, each distinct one once, and blank lines are dropped. Names are only relocated when the merged files are
+ * written, once per distinct name; the plan's relocator is replaced by its remapper, which looks names up in bulk.
+ * Lines are joined with '\n' like shadow does.
+ *
+ * <p>Its configuration, the plan's remapper and {@code shadowJar}'s relocators, only arrives once {@code shadowJar}
+ * runs and so is no input of this transformer; the relocation plan and the relocators are inputs of {@code shadowJar}
+ * itself.
+ */
+@CacheableTransformer
+final class ServiceFileMergingTransformer implements Transformer {
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+    // A properties file rather than a list of providers, which shadow leaves alone as well
+    private static final String GROOVY_EXTENSION_MODULE =
+            SERVICES_PREFIX + "org.codehaus.groovy.runtime.ExtensionModule";
+
+    // Per service, the provider names, or whole lines for comment lines, mapped to the rest of their line
+    private final Map<String, Map<String, String>> linesByService = new LinkedHashMap<>();
+    private ShadedNameRemapper remapper;
+    private List<Relocator> scriptRelocators = ImmutableList.of();
+    private ShadowStats stats;
+
+    /** Sets how service and provider names are relocated, replacing the remapper of an earlier relocation plan. */
+    void useRemapper(ShadedNameRemapper planRemapper) {
+        this.remapper = planRemapper;
+    }
+
+    @Internal
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public boolean canTransformResource(FileTreeElement element) {
+        String path = element.getRelativePath().getPathString();
+        return path.startsWith(SERVICES_PREFIX)
+                && path.length() > SERVICES_PREFIX.length()
+                && path.indexOf('/', SERVICES_PREFIX.length()) < 0
+                && !path.equals(GROOVY_EXTENSION_MODULE);
+    }
+
+    @Override
+    public void transform(TransformerContext context) {
+        // The plan's relocator is applied through the remapper instead, like for the jar's other entries
+        scriptRelocators = context.getRelocators().stream()
+                .filter(relocator -> !(relocator instanceof ShadowJarConfigurationTask.JarFilesRelocator))
+                .collect(Collectors.toList());
+        stats = context.getStats();
+
+        Map<String, String> lines = linesByService.computeIfAbsent(
+                context.getPath().substring(SERVICES_PREFIX.length()), _service -> new LinkedHashMap<>());
+        try (BufferedReader reader =
+                new BufferedReader(new InputStreamReader(context.getIs(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                int comment = trimmed.indexOf('#');
+                String provider = (comment < 0 ? trimmed : trimmed.substring(0, comment)).trim();
+                if (!provider.isEmpty()) {
+                    lines.putIfAbsent(provider, trimmed.substring(provider.length()));
+                } else if (comment >= 0) {
+                    lines.putIfAbsent(trimmed, "");
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read " + context.getPath(), e);
+        }
+    }
+
+    @Override
+    public boolean hasTransformedResource() {
+        return !linesByService.isEmpty();
+    }
+
+    @Override
+    public void modifyOutputStream(ZipOutputStream os, boolean preserveFileTimestamps) {
+        // A relocated and an already relocated copy of the same service, e.g. from incremental mode, end up together
+        Map<String, String> relocatedNames = new HashMap<>();
+        Map<String, Map<String, String>> merged = new LinkedHashMap<>();
+        linesByService.forEach((service, lines) -> {
+            Map<String, String> relocatedLines = merged.computeIfAbsent(
+                    relocatedNames.computeIfAbsent(service, this::relocate), _service -> new LinkedHashMap<>());
+            lines.forEach((name, rest) -> relocatedLines.putIfAbsent(
+                    isComment(name) ? name : relocatedNames.computeIfAbsent(name, this::relocate), rest));
+        });
+
+        try {
+            for (Map.Entry<String, Map<String, String>> service : merged.entrySet()) {
+                ZipEntry entry = new ZipEntry(SERVICES_PREFIX + service.getKey());
+                entry.setTime(TransformerContext.getEntryTimestamp(preserveFileTimestamps, entry.getTime()));
+                os.putNextEntry(entry);
+                String content = service.getValue().entrySet().stream()
+                        .map(line -> line.getKey() + line.getValue())
+                        .collect(Collectors.joining("\n"));
+                os.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write service files", e);
+        }
+        linesByService.clear();
+    }
+
+    private static boolean isComment(String name) {
+        return name.startsWith("#");
+    }
+
+    /**
+     * Relocates a dotted class name with each relocator added to {@code shadowJar} in turn, as shadow's service file
+     * transformer does, and then with the plan.
+     */
+    private String relocate(String className) {
+        String name = className;
+        for (Relocator relocator : scriptRelocators) {
+            if (relocator.canRelocateClass(name)) {
+                name = relocator.relocateClass(RelocateClassContext.builder()
+                        .className(name)
+                        .stats(stats)
+                        .build());
+            }
+        }
+        return remapper == null ? name : remapper.mapClassName(name);
+    }
+}
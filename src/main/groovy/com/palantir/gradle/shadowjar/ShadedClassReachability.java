@@ -0,0 +1,260 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.ByteStreams;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds the classes of the shaded jars that nothing can load, so {@code shadowJar} can leave them out.
+ *
+ * <p>The walk starts from every class and {@code META-INF/services} file of the project itself, every service provider
+ * of the shaded jars and every class on the keep-list, and follows each class name its constant pool mentions. Names
+ * in string constants count too, so most reflective lookups are covered. All multi-release variants of a reached class
+ * are kept and followed as well.
+ */
+final class ShadedClassReachability {
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String SERVICE_PROVIDER_PREFIX = "META-INF/services/";
+
+    /** Class name to the jar entries that define it: the entry itself and any multi-release variants. */
+    private final Map<String, List<ClassEntry>> shadedClasses = new HashMap<>();
+
+    private final Set<String> reached = new HashSet<>();
+    private final Deque<String> queue = new ArrayDeque<>();
+    private final Map<File, ZipFile> openJars = new LinkedHashMap<>();
+
+    private ShadedClassReachability(Map<File, ? extends Collection<String>> entriesByJar) {
+        entriesByJar.forEach((jar, entries) -> {
+            for (String entry : entries) {
+                String name = className(entry);
+                if (name != null) {
+                    shadedClasses.computeIfAbsent(name, key -> new ArrayList<>(1)).add(new ClassEntry(jar, entry));
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the class entries of {@code entriesByJar} that cannot be reached. {@code keep} holds fully qualified
+     * class names, or package names followed by {@code .*} for the package or {@code .**} for it and all subpackages.
+     */
+    static ImmutableSortedSet<String> unreachableClassEntries(
+            Map<File, ? extends Collection<String>> entriesByJar, Collection<File> projectOutputs, Set<String> keep) {
+        ShadedClassReachability reachability = new ShadedClassReachability(entriesByJar);
+        try {
+            reachability.addKeptClasses(keep);
+            for (File output : projectOutputs) {
+                reachability.addProjectOutput(output);
+            }
+            reachability.addShadedServiceProviders(entriesByJar);
+            reachability.walk();
+        } finally {
+            reachability.closeJars();
+        }
+
+        ImmutableSortedSet.Builder<String> unreachable = ImmutableSortedSet.naturalOrder();
+        reachability.shadedClasses.forEach((name, entries) -> {
+            if (!reachability.reached.contains(name)) {
+                entries.forEach(entry -> unreachable.add(entry.path));
+            }
+        });
+        return unreachable.build();
+    }
+
+    private void addKeptClasses(Set<String> keep) {
+        List<String> packages = new ArrayList<>();
+        List<String> packageTrees = new ArrayList<>();
+        for (String pattern : keep) {
+            if (pattern.endsWith(".**")) {
+                packageTrees.add(internalName(pattern.substring(0, pattern.length() - 2)));
+            } else if (pattern.endsWith(".*")) {
+                packages.add(internalName(pattern.substring(0, pattern.length() - 1)));
+            } else {
+                reach(internalName(pattern));
+            }
+        }
+        if (packages.isEmpty() && packageTrees.isEmpty()) {
+            return;
+        }
+
+        for (String name : shadedClasses.keySet()) {
+            String namePackage = name.substring(0, name.lastIndexOf('/') + 1);
+            if (packages.contains(namePackage) || packageTrees.stream().anyMatch(name::startsWith)) {
+                reach(name);
+            }
+        }
+    }
+
+    private void addProjectOutput(File output) {
+        if (!output.isDirectory()) {
+            return;
+        }
+        Path root = output.toPath();
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(Files::isRegularFile).forEach(file -> {
+                String path = root.relativize(file).toString().replace(File.separatorChar, '/');
+                try {
+                    if (path.endsWith(CLASS_SUFFIX)) {
+                        reachReferences(Files.readAllBytes(file));
+                    } else if (path.startsWith(SERVICE_PROVIDER_PREFIX)) {
+                        reachServiceFile(path, Files.newInputStream(file));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException("Could not read project classes in " + output, e);
+        }
+    }
+
+    private void addShadedServiceProviders(Map<File, ? extends Collection<String>> entriesByJar) {
+        entriesByJar.forEach((jar, entries) -> {
+            for (String entry : entries) {
+                if (entry.startsWith(SERVICE_PROVIDER_PREFIX) && entry.length() > SERVICE_PROVIDER_PREFIX.length()) {
+                    ZipFile zipFile = open(jar);
+                    try {
+                        reachServiceFile(entry, zipFile.getInputStream(zipFile.getEntry(entry)));
+                    } catch (IOException e) {
+                        throw new RuntimeException("Could not read " + entry + " in " + jar, e);
+                    }
+                }
+            }
+        });
+    }
+
+    /** The service interface and every provider listed in a {@code META-INF/services} file. */
+    private void reachServiceFile(String path, InputStream content) throws IOException {
+        reach(internalName(path.substring(SERVICE_PROVIDER_PREFIX.length())));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(content, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                String provider = (comment < 0 ? line : line.substring(0, comment)).trim();
+                if (!provider.isEmpty()) {
+                    reach(internalName(provider));
+                }
+            }
+        }
+    }
+
+    private void walk() {
+        while (!queue.isEmpty()) {
+            for (ClassEntry entry : shadedClasses.get(queue.poll())) {
+                reachReferences(read(entry));
+            }
+        }
+    }
+
+    private void reachReferences(byte[] classBytes) {
+        // Over-approximating the names a constant could stand for only keeps extra classes
+        ClassFileConstantPool.parse(classBytes).ifPresent(pool -> {
+            for (int i = 1; i < pool.count(); i++) {
+                String value = pool.utf8(i);
+                if (value != null) {
+                    ClassFileConstantPool.forEachClassNameIn(value, this::reach);
+                }
+            }
+        });
+    }
+
+    private void reach(String name) {
+        if (shadedClasses.containsKey(name) && reached.add(name)) {
+            queue.add(name);
+        }
+    }
+
+    private byte[] read(ClassEntry entry) {
+        ZipFile zipFile = open(entry.jar);
+        try (InputStream in = zipFile.getInputStream(zipFile.getEntry(entry.path))) {
+            return ByteStreams.toByteArray(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read " + entry.path + " in " + entry.jar, e);
+        }
+    }
+
+    private ZipFile open(File jar) {
+        return openJars.computeIfAbsent(jar, file -> {
+            try {
+                return new ZipFile(file);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not open jar file " + file, e);
+            }
+        });
+    }
+
+    private void closeJars() {
+        for (ZipFile zipFile : openJars.values()) {
+            try {
+                zipFile.close();
+            } catch (IOException e) {
+                // Only read from, so nothing can be lost
+            }
+        }
+        openJars.clear();
+    }
+
+    /** The internal name of the class an entry defines, or null if it is not a class that may be left out. */
+    private static String className(String entry) {
+        if (!entry.endsWith(CLASS_SUFFIX)) {
+            return null;
+        }
+        int prefixLength = Math.max(MultiReleaseJars.versionedPrefixLength(entry), 0);
+        String name = entry.substring(prefixLength, entry.length() - CLASS_SUFFIX.length());
+        // Module and package descriptors are never referenced by name, but still matter
+        if (name.equals("module-info") || name.endsWith("/package-info")) {
+            return null;
+        }
+        return name;
+    }
+
+    private static String internalName(String className) {
+        return className.replace('.', '/');
+    }
+
+    private static final class ClassEntry {
+        private final File jar;
+        private final String path;
+
+        private ClassEntry(File jar, String path) {
+            this.jar = jar;
+            this.path = path;
+        }
+    }
+}
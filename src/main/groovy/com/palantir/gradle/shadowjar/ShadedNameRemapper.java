@@ -0,0 +1,136 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * ASM {@link Remapper} that prefixes every name in a {@link RelocatableIndex}. This mirrors what shadow's
+ * {@code RelocatorRemapper} does with a {@code JarFilesRelocator}, so jars relocated ahead of time end up with exactly
+ * the same names as if {@code shadowJar} had relocated them itself. Like there, only constant values may be dotted
+ * class names; internal names and entry paths are only ever relocated as paths.
+ */
+final class ShadedNameRemapper extends Remapper {
+    // Same pattern as shadow's RelocatorRemapper, which strips array and object descriptor markers before matching
+    private static final Pattern CLASS_PATTERN = Pattern.compile("(\\[*)?L(.+)");
+
+    private final RelocatableIndex relocatable;
+    private final String shadedPrefix;
+    private final String shadedPathPrefix;
+
+    /** {@code shadedPrefix} is the dotted prefix ending in '.', as stored in a {@link RelocationPlan}. */
+    ShadedNameRemapper(RelocatableIndex relocatable, String shadedPrefix) {
+        this.relocatable = relocatable;
+        this.shadedPrefix = shadedPrefix;
+        this.shadedPathPrefix = shadedPrefix.replace('.', '/');
+    }
+
+    static ShadedNameRemapper fromPlan(RelocationPlan plan) {
+        return new ShadedNameRemapper(RelocatableIndex.of(plan.relocatablePaths()), plan.shadedPrefix());
+    }
+
+    @Override
+    public Object mapValue(Object value) {
+        if (value instanceof String) {
+            return relocate((String) value, true);
+        }
+        return super.mapValue(value);
+    }
+
+    @Override
+    public String map(String internalName) {
+        return relocate(internalName, false);
+    }
+
+    /**
+     * Whether relocating a class could change {@code value}, wherever it is used in the class's constant pool. This
+     * errs on the side of true, so a class none of whose constants may be relocated can be copied as it is.
+     */
+    boolean mayRelocate(String value) {
+        // An inner class of a generic class only has its simple name in a signature, so its full name is not checked
+        if (value.contains(">.")) {
+            return true;
+        }
+        return ClassFileConstantPool.anyClassNameIn(value, relocatable::containsPathOrClass);
+    }
+
+    /** Returns the relocated name of a jar entry, using the same rules as shadow's copy action. */
+    String mapEntryPath(String path) {
+        if (path.endsWith(".class")) {
+            return map(path.substring(0, path.indexOf('.'))) + ".class";
+        }
+        return map(path);
+    }
+
+    /**
+     * Returns the relocated name of a dotted class name, e.g. from a service file, the way shadow relocates them
+     * without taking descriptor markers into account.
+     */
+    String mapClassName(String className) {
+        if (relocatable.containsPathOrClass(className.replace('.', '/'))) {
+            return shadedPrefix + className;
+        }
+        return className;
+    }
+
+    /** Whether {@code path} is an entry name this remapper produced, such as the entries of a relocated jar. */
+    boolean isShadedPath(String path) {
+        return MultiReleaseJars.unversionedPath(path).startsWith(shadedPathPrefix);
+    }
+
+    /**
+     * Relocates {@code original} like shadow's {@code RelocatorRemapper}, whose {@code mapValue} also relocates dotted
+     * class names while its {@code map} only relocates paths.
+     */
+    private String relocate(String original, boolean dottedClassNames) {
+        String name = original;
+        String prefix = "";
+        String suffix = "";
+
+        Matcher matcher = CLASS_PATTERN.matcher(name);
+        if (matcher.matches()) {
+            prefix = matcher.group(1) + "L";
+            suffix = ";";
+            name = matcher.group(2);
+        }
+
+        // SimpleRelocator.canRelocateClass: dotted class names, e.g. in string constants
+        if (dottedClassNames
+                && name.indexOf('/') < 0
+                && relocatable.containsPathOrClass(name.replace('.', '/'))) {
+            return prefix + shadedPrefix + name + suffix;
+        }
+
+        if (relocatable.containsPathOrClass(name)) {
+            return prefix + relocatePath(name) + suffix;
+        }
+
+        return original;
+    }
+
+    private String relocatePath(String path) {
+        int multiReleasePrefixLength = MultiReleaseJars.versionedPrefixLength(path);
+        if (multiReleasePrefixLength < 0) {
+            return shadedPathPrefix + path;
+        }
+        return path.substring(0, multiReleasePrefixLength)
+                + shadedPathPrefix
+                + path.substring(multiReleasePrefixLength);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.process.ExecOperations;
+import org.gradle.work.DisableCachingByDefault;
+
+/**
+ * Runs a training entry point against the shadow jar and records the classes it loads as a class-data-sharing class
+ * list, and optionally dumps a static CDS archive from that list.
+ *
+ * <p>The training run uses the shadow jar itself, so the list holds the relocated names that actually ship. A main
+ * class from a shaded dependency can be given by its original name; it is relocated with the plan written by
+ * {@code relocateShadowJar}. A CDS archive is only used at runtime if the JVM and the classpath, including the paths
+ * and modification times of its jars, match the ones it was dumped with.
+ */
+@DisableCachingByDefault(because = "Depends on a training run and on the absolute paths of the classpath")
+public abstract class ShadowJarClassDataSharingTask extends DefaultTask {
+    private final RegularFileProperty shadowJar = getProject().getObjects().fileProperty();
+    private final ConfigurableFileCollection runtimeClasspath =
+            getProject().getObjects().fileCollection();
+    private final RegularFileProperty relocationPlan = getProject().getObjects().fileProperty();
+    private final Property<String> mainClass = getProject().getObjects().property(String.class);
+    private final ListProperty<String> args = getProject().getObjects().listProperty(String.class);
+    private final Property<JavaLauncher> javaLauncher =
+            getProject().getObjects().property(JavaLauncher.class);
+    private final RegularFileProperty classList = getProject().getObjects().fileProperty();
+    private final RegularFileProperty archive = getProject().getObjects().fileProperty();
+
+    @Inject
+    protected abstract ExecOperations getExecOperations();
+
+    @Classpath
+    public final RegularFileProperty getShadowJar() {
+        return shadowJar;
+    }
+
+    /** The dependencies the shadow jar is published with, which follow it on the training classpath. */
+    @Classpath
+    public final ConfigurableFileCollection getRuntimeClasspath() {
+        return runtimeClasspath;
+    }
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public final RegularFileProperty getRelocationPlan() {
+        return relocationPlan;
+    }
+
+    /** The training entry point, which should exercise startup and then exit. */
+    @Input
+    public final Property<String> getMainClass() {
+        return mainClass;
+    }
+
+    @Input
+    public final ListProperty<String> getArgs() {
+        return args;
+    }
+
+    @Nested
+    public final Property<JavaLauncher> getJavaLauncher() {
+        return javaLauncher;
+    }
+
+    @OutputFile
+    public final RegularFileProperty getClassList() {
+        return classList;
+    }
+
+    /** Where to dump a static CDS archive of the class list; only the class list is written when unset. */
+    @Optional
+    @OutputFile
+    public final RegularFileProperty getArchive() {
+        return archive;
+    }
+
+    @TaskAction
+    public final void run() {
+        String classpath = classpath();
+        File classListFile = classList.get().getAsFile();
+
+        // With sharing off, every class is loaded the regular way and so ends up in the list
+        List<String> training = new ArrayList<>();
+        training.add("-Xshare:off");
+        training.add("-XX:DumpLoadedClassList=" + classListFile.getAbsolutePath());
+        training.add("-cp");
+        training.add(classpath);
+        training.add(relocatedMainClass());
+        training.addAll(args.get());
+        java(training);
+
+        if (archive.isPresent()) {
+            List<String> dump = new ArrayList<>();
+            dump.add("-Xshare:dump");
+            dump.add("-XX:SharedClassListFile=" + classListFile.getAbsolutePath());
+            dump.add("-XX:SharedArchiveFile=" + archive.get().getAsFile().getAbsolutePath());
+            dump.add("-cp");
+            dump.add(classpath);
+            java(dump);
+        }
+    }
+
+    private String classpath() {
+        List<File> files = new ArrayList<>();
+        files.add(shadowJar.get().getAsFile());
+        files.addAll(runtimeClasspath.getFiles());
+        return files.stream().map(File::getAbsolutePath).collect(Collectors.joining(File.pathSeparator));
+    }
+
+    private String relocatedMainClass() {
+        ShadedNameRemapper remapper =
+                ShadedNameRemapper.fromPlan(RelocationPlan.readFrom(relocationPlan.get().getAsFile()));
+        return remapper.map(mainClass.get().replace('.', '/')).replace('/', '.');
+    }
+
+    private void java(List<String> arguments) {
+        String executable = javaLauncher.get().getExecutablePath().getAsFile().getAbsolutePath();
+        getExecOperations().exec(spec -> {
+            spec.setExecutable(executable);
+            spec.setArgs(arguments);
+        });
+    }
+}
@@ -16,57 +16,84 @@
 
 package com.palantir.gradle.shadowjar;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.jengelman.gradle.plugins.shadow.relocation.CacheableRelocator;
 import com.github.jengelman.gradle.plugins.shadow.relocation.RelocateClassContext;
 import com.github.jengelman.gradle.plugins.shadow.relocation.RelocatePathContext;
 import com.github.jengelman.gradle.plugins.shadow.relocation.SimpleRelocator;
 import com.github.jengelman.gradle.plugins.shadow.tasks.ShadowJar;
-import com.google.common.base.Preconditions;
+import com.github.jengelman.gradle.plugins.shadow.transformers.Transformer;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarFile;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
 import org.gradle.api.DefaultTask;
-import org.gradle.api.artifacts.ResolvedDependency;
-import org.gradle.api.file.FileCollection;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // Originally taken from https://github.com/johnrengelman/shadow/blob/d4e649d7dd014bfdd9575bfec92d7e74c3cf1aca/
 // src/main/groovy/com/github/jengelman/gradle/plugins/shadow/tasks/ConfigureShadowRelocation.groovy
+@CacheableTask
 public abstract class ShadowJarConfigurationTask extends DefaultTask {
 
     private static final Logger log = LoggerFactory.getLogger(ShadowJarConfigurationTask.class);
 
-    private static final String CLASS_SUFFIX = ".class";
-
-    // Multi-Release JAR Files are defined in https://openjdk.java.net/jeps/238
-    private static final Pattern MULTIRELEASE_JAR_PREFIX = Pattern.compile("^META-INF/versions/\\d+/");
     private static final String SERVICE_PROVIDER_PREFIX = "META-INF/services/";
 
-    private final Property<ShadowJar> shadowJarProperty =
-            getProject().getObjects().property(ShadowJar.class);
+    private static final int MAX_REPORTED_CONFLICTS = 20;
 
+    private final ConfigurableFileCollection shadedJars =
+            getProject().getObjects().fileCollection();
     private final Property<String> prefix = getProject().getObjects().property(String.class);
-    private final SetProperty<ResolvedDependency> acceptedDependencies =
-            getProject().getObjects().setProperty(ResolvedDependency.class);
+    private final SetProperty<String> acceptedModules =
+            getProject().getObjects().setProperty(String.class);
+    private final RegularFileProperty relocationPlan =
+            getProject().getObjects().fileProperty();
+    private final Property<JarEntryIndexCache> entryIndexCache =
+            getProject().getObjects().property(JarEntryIndexCache.class);
+    private final RegularFileProperty performanceReport =
+            getProject().getObjects().fileProperty();
+    private final ConfigurableFileCollection projectClasses =
+            getProject().getObjects().fileCollection();
+    private final SetProperty<String> keepClasses =
+            getProject().getObjects().setProperty(String.class);
+    private final RegularFileProperty unreachableClasses =
+            getProject().getObjects().fileProperty();
+    private final Property<DuplicateEntryPolicy> duplicateEntryPolicy =
+            getProject().getObjects().property(DuplicateEntryPolicy.class);
+    private final RegularFileProperty duplicateEntriesReport =
+            getProject().getObjects().fileProperty();
 
-    @Internal
-    public final Property<ShadowJar> getShadowJar() {
-        return shadowJarProperty;
+    /** The jars of the modules that {@code shadowJar} shades, in the order it copies them. */
+    @Classpath
+    public final ConfigurableFileCollection getShadedJars() {
+        return shadedJars;
     }
 
     @Input
@@ -74,105 +101,313 @@ public abstract class ShadowJarConfigurationTask extends DefaultTask {
         return prefix;
     }
 
+    /** The {@code group:name:version} of every module that {@code shadowJar} shades. */
+    @Input
+    public final SetProperty<String> getAcceptedModules() {
+        return acceptedModules;
+    }
+
+    @OutputFile
+    public final RegularFileProperty getRelocationPlan() {
+        return relocationPlan;
+    }
+
+    @Internal
+    public final Property<JarEntryIndexCache> getEntryIndexCache() {
+        return entryIndexCache;
+    }
+
+    /** Where to write a JSON report of where this task spent its time; nothing is written when unset. */
+    @Optional
+    @OutputFile
+    public final RegularFileProperty getPerformanceReport() {
+        return performanceReport;
+    }
+
+    /** The project's own classes and resources, from which minimization starts looking for used shaded classes. */
     @Classpath
-    public final List<FileCollection> getConfigurations() {
-        return shadowJarProperty.get().getConfigurations();
+    public final ConfigurableFileCollection getProjectClasses() {
+        return projectClasses;
+    }
+
+    /** Shaded classes that minimization keeps even if nothing references them, see {@link ShadowJarExtension}. */
+    @Input
+    public final SetProperty<String> getKeepClasses() {
+        return keepClasses;
+    }
+
+    /**
+     * Where to write the shaded class entries that nothing reaches, one per line, for {@code shadowJar} to leave out.
+     * Minimization only runs when this is set.
+     */
+    @Optional
+    @OutputFile
+    public final RegularFileProperty getUnreachableClasses() {
+        return unreachableClasses;
     }
 
+    /** What to do when shaded jars contain different copies of the same entry. */
     @Input
-    public final SetProperty<ResolvedDependency> getAcceptedDependencies() {
-        return acceptedDependencies;
+    public final Property<DuplicateEntryPolicy> getDuplicateEntryPolicy() {
+        return duplicateEntryPolicy;
+    }
+
+    /** JSON listing every entry that several shaded jars contain, which jar owns it and how it is resolved. */
+    @OutputFile
+    public final RegularFileProperty getDuplicateEntriesReport() {
+        return duplicateEntriesReport;
     }
 
     @TaskAction
     public final void run() {
-        ShadowJar shadowJarTask = shadowJarProperty.get();
-
-        shadowJarTask.getDependencyFilter().include(acceptedDependencies.get()::contains);
-
-        FileCollection jars = shadowJarTask.getDependencyFilter().resolve(getConfigurations());
-
-        Set<String> pathsInJars = jars.getFiles().stream()
-                .flatMap(jar -> {
-                    try (JarFile jarFile = new JarFile(jar)) {
-                        return Collections.list(jarFile.entries()).stream()
-                                .filter(entry -> !entry.isDirectory())
-                                .map(ZipEntry::getName)
-                                .peek(path -> log.debug("Jar '{}' contains entry '{}'", jar.getName(), path))
-                                .peek(path -> Preconditions.checkState(
-                                        !path.startsWith("/"), "Unexpected absolute path '%s' in jar '%s'", path, jar))
-                                .collect(Collectors.toList())
-                                .stream();
-                    } catch (IOException e) {
-                        throw new RuntimeException("Could not open jar file", e);
-                    }
-                })
-                .collect(Collectors.toSet());
+        PerformanceReport report = new PerformanceReport(getName());
+
+        Set<File> jars = report.time("resolve", shadedJars::getFiles);
+
+        JarEntryIndexCache cache = entryIndexCache.get();
+        Map<File, JarListing> listingOfJar = new ConcurrentHashMap<>();
+        JarEntryIndexCache.Reads reads = new JarEntryIndexCache.Reads();
+        Set<String> pathsInJars = report.time("index", () -> JarEntryIndexer.indexEntries(jars, jar -> {
+            long start = System.nanoTime();
+            JarListing listing = cache.listingOf(jar, reads);
+            List<String> entries = listing.paths();
+            report.recordJar(jar, entries.size(), System.nanoTime() - start);
+            listingOfJar.put(jar, listing);
+            return entries;
+        }));
+
+        // Jar order decides which copy of a duplicated entry shadowJar keeps, so ownership follows the same order
+        Map<File, JarListing> listingByJar = new LinkedHashMap<>();
+        Map<File, List<String>> entriesByJar = new LinkedHashMap<>();
+        jars.forEach(jar -> {
+            listingByJar.put(jar, listingOfJar.get(jar));
+            entriesByJar.put(jar, listingOfJar.get(jar).paths());
+        });
+        DuplicateEntries duplicates = report.time("duplicates", () -> DuplicateEntries.find(listingByJar));
+        checkDuplicates(duplicates);
 
         // The Relocator is responsible for fixing the bytecode at callsites *and* filenames of .class files,
         // so we have to account for things _calling_ these weird multi-release classes.
         Set<String> multiReleaseStuff = pathsInJars.stream()
-                .flatMap(input -> splitMultiReleasePath(input).stream().skip(1))
+                .filter(MultiReleaseJars::isVersioned)
+                .map(MultiReleaseJars::unversionedPath)
                 .collect(Collectors.toSet());
 
-        Set<String> relocatable = Stream.concat(pathsInJars.stream(), multiReleaseStuff.stream())
+        Set<String> relocatable = report.time("plan", () -> Stream.concat(
+                        pathsInJars.stream(), multiReleaseStuff.stream())
                 .filter(path -> !path.equals("META-INF/MANIFEST.MF")) // don't relocate this!
                 .filter(path -> !path.startsWith(SERVICE_PROVIDER_PREFIX)) // service providers remain in the root
-                .collect(Collectors.toSet());
+                .collect(Collectors.toSet()));
+
+        boolean multiRelease = !multiReleaseStuff.isEmpty();
+
+        // JEP 238 requires this manifest entry
+        Map<String, String> manifestAttributes =
+                multiRelease ? ImmutableMap.of("Multi-Release", "true") : ImmutableMap.of();
 
-        shadowJarTask.relocate(new JarFilesRelocator(relocatable, prefix.get() + "."));
+        File planFile = relocationPlan.get().getAsFile();
+        report.time("write", () -> {
+            new RelocationPlan(prefix.get() + ".", relocatable, multiRelease, manifestAttributes).writeTo(planFile);
+            return planFile;
+        });
 
-        if (!multiReleaseStuff.isEmpty()) {
+        if (unreachableClasses.isPresent()) {
+            Set<String> unreachable = report.time(
+                    "minimize",
+                    () -> ShadedClassReachability.unreachableClassEntries(
+                            entriesByJar, projectClasses.getFiles(), keepClasses.get()));
+            writeLines(unreachableClasses.get().getAsFile(), unreachable);
+            report.put("unreachableClasses", unreachable.size());
+        }
+
+        if (performanceReport.isPresent()) {
+            report.put("jars", jars.size())
+                    .put("entries", pathsInJars.size())
+                    .put("duplicatePaths", duplicates.all().size())
+                    .put("relocatablePaths", relocatable.size())
+                    .put("multiReleaseEntries", multiReleaseStuff.size())
+                    .put("jarsListed", reads.jarsListed())
+                    .put("listingsLoaded", reads.listingsLoaded())
+                    .put("listingsShared", reads.listingsShared())
+                    .put("bytesRead", reads.bytesRead())
+                    .put("bytesWritten", planFile.length())
+                    .writeTo(performanceReport.get().getAsFile());
+        }
+    }
+
+    private void checkDuplicates(DuplicateEntries duplicates) {
+        File reportFile = duplicateEntriesReport.get().getAsFile();
+        duplicates.writeReportTo(reportFile);
+
+        List<DuplicateEntries.Duplicate> conflicts = duplicates.conflicts();
+        if (conflicts.isEmpty()) {
+            return;
+        }
+        if (duplicateEntryPolicy.get() == DuplicateEntryPolicy.FAIL) {
+            throw new GradleException(String.format(
+                    "Shaded jars contain different copies of %d entries, see %s:%n%s",
+                    conflicts.size(),
+                    reportFile,
+                    conflicts.stream()
+                            .limit(MAX_REPORTED_CONFLICTS)
+                            .map(conflict -> "  " + conflict.path() + " in "
+                                    + conflict.jars().stream().map(File::getName).collect(Collectors.joining(", ")))
+                            .collect(Collectors.joining(System.lineSeparator()))));
+        }
+        log.info(
+                "Shaded jars contain different copies of {} entries, the first jar on the classpath wins, see {}",
+                conflicts.size(),
+                reportFile);
+    }
+
+    private static void writeLines(File file, Set<String> lines) {
+        try {
+            Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write " + file, e);
+        }
+    }
+
+    /**
+     * Adds the relocator, service file relocation and manifest attributes described by a plan written by this task to
+     * {@code shadowJar}, and excludes the classes listed in {@code unreachableClassesFile} if minimization ran. In
+     * incremental mode, {@code appender} then takes the entries of the relocated intermediates out of shadow's hands.
+     */
+    static void applyRelocationPlan(
+            ShadowJar shadowJar, File planFile, File unreachableClassesFile, RelocatedJarAppender appender) {
+        RelocationPlan plan = RelocationPlan.readFrom(planFile);
+        RelocatableIndex relocatableIndex = RelocatableIndex.of(plan.relocatablePaths());
+
+        ShadedNameRemapper remapper = new ShadedNameRemapper(relocatableIndex, plan.shadedPrefix());
+
+        shadowJar.relocate(new JarFilesRelocator(relocatableIndex, plan.shadedPrefix()));
+
+        if (unreachableClassesFile != null) {
+            // Relocated intermediates from incremental mode already carry the shaded names, so exclude those as well
+            Set<String> excluded = new HashSet<>();
             try {
-                shadowJarTask.transform(ComposableManifestAppenderTransformer.class, transformer -> {
-                    // JEP 238 requires this manifest entry
-                    transformer.append("Multi-Release", true);
-                });
-            } catch (ReflectiveOperationException e) {
-                throw new RuntimeException("Unable to construct ManifestAppenderTransformer", e);
+                for (String path : Files.readAllLines(unreachableClassesFile.toPath(), StandardCharsets.UTF_8)) {
+                    excluded.add(path);
+                    excluded.add(remapper.mapEntryPath(path));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read " + unreachableClassesFile, e);
             }
+            shadowJar.exclude(element -> excluded.contains(element.getPath()));
         }
+
+        if (appender != null) {
+            shadowJar.exclude(appender.skipShadedEntries(remapper));
+        }
+
+        registeredTransformer(shadowJar, ServiceFileMergingTransformer.class, ServiceFileMergingTransformer::new)
+                .useRemapper(remapper);
+        registeredTransformer(shadowJar, ManifestMergingTransformer.class, ManifestMergingTransformer::new)
+                .replacePlanAttributes(plan.manifestAttributes());
+    }
+
+    /** A transformer the plugin registers, which is only added here if a build script removed it. */
+    private static <T extends Transformer> T registeredTransformer(
+            ShadowJar shadowJar, Class<T> type, Supplier<T> create) {
+        return shadowJar.getTransformers().stream()
+                .filter(type::isInstance)
+                .map(type::cast)
+                .findFirst()
+                .orElseGet(() -> {
+                    T transformer = create.get();
+                    shadowJar.transform(transformer);
+                    return transformer;
+                });
     }
 
-    /** Returns a pair of 'META-INF/versions/9/' and 'com/foo/whatever.class'. */
-    private static List<String> splitMultiReleasePath(String input) {
-        Matcher matcher = MULTIRELEASE_JAR_PREFIX.matcher(input);
-        if (matcher.find()) {
-            return ImmutableList.of(input.substring(0, matcher.end()), input.substring(matcher.end()));
-        } else {
-            return ImmutableList.of();
+    /**
+     * Logs how often shadow consulted the relocator and, if {@code reportFile} is given, writes a JSON report of the
+     * {@code shadowJar} execution, including the report of this task found at {@code relocateReportFile}.
+     */
+    static void reportRelocation(ShadowJar shadowJar, File reportFile, File relocateReportFile) {
+        List<JarFilesRelocator> relocators = shadowJar.getRelocators().stream()
+                .filter(JarFilesRelocator.class::isInstance)
+                .map(JarFilesRelocator.class::cast)
+                .collect(Collectors.toList());
+        relocators.forEach(JarFilesRelocator::logCacheStats);
+
+        if (reportFile == null) {
+            return;
+        }
+
+        PerformanceReport report = new PerformanceReport(shadowJar.getName());
+        File jar = shadowJar.getArchiveFile().get().getAsFile();
+        report.put("bytesWritten", jar.length());
+        try (RawZipFile zipFile = new RawZipFile(jar)) {
+            report.put("entriesWritten", zipFile.entries().size());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read " + jar, e);
+        }
+        report.put(
+                "relocators", relocators.stream().map(JarFilesRelocator::statistics).collect(Collectors.toList()));
+        if (relocateReportFile != null && relocateReportFile.isFile()) {
+            report.put("relocateShadowJar", PerformanceReport.readFrom(relocateReportFile));
         }
+        report.writeTo(reportFile);
     }
 
     @CacheableRelocator
-    private static final class JarFilesRelocator extends SimpleRelocator {
-        private final Set<String> relocatable;
+    static final class JarFilesRelocator extends SimpleRelocator {
+        // The same class names are relocated thousands of times across constant pools, so results are memoized.
+        // ShadowStats only records the (pattern, shadedPattern) pair, which the first miss has already recorded.
+        // Shadow does not promise to copy entries on a single thread, so the caches and counters are thread-safe.
+        private static final int MAX_CACHED_RELOCATIONS = 65_536;
+
+        private final RelocatableIndex relocatable;
+        private final Cache<String, String> relocatedPaths = newRelocationCache();
+        private final Cache<String, String> relocatedClasses = newRelocationCache();
+        private final LongAdder canRelocatePathCalls = new LongAdder();
+        private final LongAdder relocatePathCalls = new LongAdder();
+        private final LongAdder relocatePathCacheHits = new LongAdder();
+        private final LongAdder relocateClassCalls = new LongAdder();
+        private final LongAdder relocateClassCacheHits = new LongAdder();
+        private final long createdNanos = System.nanoTime();
 
-        private JarFilesRelocator(Set<String> relocatable, String shadedPrefix) {
+        JarFilesRelocator(RelocatableIndex relocatable, String shadedPrefix) {
             super("", shadedPrefix, ImmutableList.of(), ImmutableList.of());
             this.relocatable = relocatable;
         }
 
+        private static Cache<String, String> newRelocationCache() {
+            return Caffeine.newBuilder().maximumSize(MAX_CACHED_RELOCATIONS).build();
+        }
+
         @Override
         public boolean canRelocatePath(String path) {
-            return relocatable.contains(path + CLASS_SUFFIX) || relocatable.contains(path);
+            canRelocatePathCalls.increment();
+            return relocatable.containsPathOrClass(path);
         }
 
         @Override
         public String relocatePath(RelocatePathContext context) {
-            List<String> maybePair = splitMultiReleasePath(context.getPath());
-            if (!maybePair.isEmpty()) {
-                return relocateMultiReleasePath(maybePair, context);
+            String path = context.getPath();
+            relocatePathCalls.increment();
+            String cached = relocatedPaths.getIfPresent(path);
+            if (cached != null) {
+                relocatePathCacheHits.increment();
+                return cached;
             }
 
-            String output = super.relocatePath(context);
-            log.debug("relocatePath('{}') -> {}", context.getPath(), output);
+            String output;
+            int multiReleasePrefixLength = MultiReleaseJars.versionedPrefixLength(path);
+            if (multiReleasePrefixLength >= 0) {
+                output = relocateMultiReleasePath(path, multiReleasePrefixLength, context);
+            } else {
+                output = super.relocatePath(context);
+                log.debug("relocatePath('{}') -> {}", path, output);
+            }
+            relocatedPaths.put(path, output);
             return output;
         }
 
-        private String relocateMultiReleasePath(List<String> pair, RelocatePathContext context) {
-            context.setPath(pair.get(1));
-            String out = pair.get(0) + super.relocatePath(context);
+        private String relocateMultiReleasePath(String path, int prefixLength, RelocatePathContext context) {
+            context.setPath(path.substring(prefixLength));
+            String out = path.substring(0, prefixLength) + super.relocatePath(context);
             log.debug("relocateMultiReleasePath('{}') -> {}", context.getPath(), out);
             return out;
         }
@@ -180,12 +415,21 @@ public abstract class ShadowJarConfigurationTask extends DefaultTask {
         @Override
         public String relocateClass(RelocateClassContext context) {
             String className = context.getClassName();
+            relocateClassCalls.increment();
+            String cached = className == null ? null : relocatedClasses.getIfPresent(className);
+            if (cached != null) {
+                relocateClassCacheHits.increment();
+                return cached;
+            }
+
             String output;
             // Work around a poor interaction between ServiceFileTransformer and our
             // prefix configuration which otherwise results in prefixes being added
             // prior to 'META-INF', breaking service loading. The default SimpleRelocator
             // replaces the first instance of the expected prefix with the new prefix,
             // however this is problematic when the expected prefix is an empty string.
+            // The plugin merges service files itself, but build scripts may still add
+            // mergeServiceFiles() or a ServiceFileTransformer of their own.
             if (className != null && className.startsWith(SERVICE_PROVIDER_PREFIX)) {
                 String targetClassName = className.substring(SERVICE_PROVIDER_PREFIX.length());
                 RelocateClassContext serviceContext = RelocateClassContext.builder()
@@ -196,8 +440,37 @@ public abstract class ShadowJarConfigurationTask extends DefaultTask {
             } else {
                 output = super.relocateClass(context);
             }
-            log.debug("relocateClass('{}') -> {}", context.getClassName(), output);
+            log.debug("relocateClass('{}') -> {}", className, output);
+            if (className != null) {
+                relocatedClasses.put(className, output);
+            }
             return output;
         }
+
+        void logCacheStats() {
+            log.info(
+                    "Relocation cache: paths {} hits / {} misses, classes {} hits / {} misses",
+                    relocatePathCacheHits.sum(),
+                    relocatePathCalls.sum() - relocatePathCacheHits.sum(),
+                    relocateClassCacheHits.sum(),
+                    relocateClassCalls.sum() - relocateClassCacheHits.sum());
+        }
+
+        /** Created just before {@code shadowJar} starts copying, so this is roughly how long copying took. */
+        private long millisSinceCreation() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdNanos);
+        }
+
+        Map<String, Object> statistics() {
+            return ImmutableMap.<String, Object>builder()
+                    .put("millis", millisSinceCreation())
+                    .put("relocatablePaths", relocatable.size())
+                    .put("canRelocatePathCalls", canRelocatePathCalls.sum())
+                    .put("relocatePathCalls", relocatePathCalls.sum())
+                    .put("relocatePathCacheHits", relocatePathCacheHits.sum())
+                    .put("relocateClassCalls", relocateClassCalls.sum())
+                    .put("relocateClassCacheHits", relocateClassCacheHits.sum())
+                    .build();
+        }
     }
 }
@@ -0,0 +1,89 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
+
+/** Opt-in behaviour of the {@code com.palantir.shadow-jar} plugin, configured through {@code shadowJarOptions}. */
+public abstract class ShadowJarExtension {
+    public static final String NAME = "shadowJarOptions";
+
+    /**
+     * Relocate each shaded dependency on its own into a cached intermediate jar, so {@code shadowJar} only has to
+     * relocate the project's own classes and append the already relocated entries of the intermediates as they are.
+     * Relocators added to {@code shadowJar} therefore only apply to the project's own classes. Defaults to false.
+     */
+    public abstract Property<Boolean> getIncremental();
+
+    /**
+     * {@link java.util.zip.Deflater} level, from -1 to 9, for the relocated classes of the intermediate jars of
+     * incremental mode, which {@code shadowJar} ships as they are; resources keep their original compression. In
+     * incremental mode 0 stores entries uncompressed and also makes {@code shadowJar} write a STORED jar. Has no
+     * effect otherwise. Defaults to {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}.
+     */
+    public abstract Property<Integer> getCompressionLevel();
+
+    /**
+     * Relocate and compress the classes of each shaded jar on several threads in incremental mode. Entries are still
+     * written in their original order, so the intermediate jars are identical either way. Defaults to false.
+     */
+    public abstract Property<Boolean> getParallelRelocation();
+
+    /**
+     * Write JSON reports of where {@code relocateShadowJar} and {@code shadowJar} spent their time to
+     * {@code build/reports/shadow-jar/performance.json}. Defaults to false.
+     */
+    public abstract Property<Boolean> getPerformanceReport();
+
+    /**
+     * Leave out shaded classes that cannot be reached from the project's own classes, from service providers or from
+     * {@link #getKeepClasses()}. Defaults to false.
+     */
+    public abstract Property<Boolean> getMinimize();
+
+    /**
+     * Shaded classes that {@link #getMinimize()} must keep, for example because they are only loaded reflectively:
+     * fully qualified class names, or package names followed by {@code .*} for the package or {@code .**} for it and
+     * all its subpackages.
+     */
+    public abstract SetProperty<String> getKeepClasses();
+
+    /**
+     * What to do when shaded jars contain different copies of the same entry, see {@link DuplicateEntryPolicy}. Every
+     * duplicate is listed in {@code build/shadow-jar/duplicate-entries.json}. Defaults to
+     * {@link DuplicateEntryPolicy#FIRST_WINS}.
+     */
+    public abstract Property<DuplicateEntryPolicy> getDuplicateEntries();
+
+    /**
+     * Main class of a training run for {@code shadowJarClassDataSharing}, which runs it against the shadow jar and
+     * records the classes it loads as a class-data-sharing class list. Classes of shaded dependencies may be given by
+     * their original name. The run should exercise startup and then exit.
+     */
+    public abstract Property<String> getCdsTrainingMainClass();
+
+    /** Arguments for the {@link #getCdsTrainingMainClass()} training run. */
+    public abstract ListProperty<String> getCdsTrainingArgs();
+
+    /**
+     * Also dump a static CDS archive from the class list, for use with {@code -XX:SharedArchiveFile}. The archive
+     * only applies to the JDK it was dumped with and the same classpath. Defaults to false.
+     */
+    public abstract Property<Boolean> getCdsArchive();
+}
@@ -18,31 +18,59 @@ package com.palantir.gradle.shadowjar;
 
 import com.github.jengelman.gradle.plugins.shadow.ShadowPlugin;
 import com.github.jengelman.gradle.plugins.shadow.tasks.ShadowJar;
-import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.function.Predicate;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.Dependency;
-import org.gradle.api.artifacts.ExternalModuleDependency;
+import org.gradle.api.artifacts.ModuleIdentifier;
+import org.gradle.api.artifacts.ModuleVersionIdentifier;
 import org.gradle.api.artifacts.ResolvedDependency;
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentSelector;
+import org.gradle.api.artifacts.component.ProjectComponentIdentifier;
+import org.gradle.api.artifacts.dsl.DependencyHandler;
+import org.gradle.api.artifacts.result.DependencyResult;
+import org.gradle.api.artifacts.result.ResolvedComponentResult;
+import org.gradle.api.artifacts.result.ResolvedDependencyResult;
+import org.gradle.api.artifacts.type.ArtifactTypeDefinition;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFile;
 import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.plugins.JavaPluginExtension;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.specs.Specs;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.SourceSetContainer;
 import org.gradle.api.tasks.TaskProvider;
 import org.gradle.api.tasks.bundling.Jar;
+import org.gradle.api.tasks.bundling.ZipEntryCompression;
+import org.gradle.jvm.toolchain.JavaToolchainService;
 import org.gradle.util.GradleVersion;
 import org.immutables.value.Value;
 
 public class ShadowJarPlugin implements Plugin<Project> {
-    private static final Set<Predicate<ResolvedDependency>> BANNED_LIBRARIES = ImmutableSet.of(
+    private static final Set<Predicate<ModuleVersionIdentifier>> BANNED_LIBRARIES = ImmutableSet.of(
             groupOf("org.slf4j"),
             groupOf("commons-logging"),
             groupOf("log4j"),
@@ -52,16 +80,16 @@ public class ShadowJarPlugin implements Plugin<Project> {
             groupOf("com.palantir.tritium").and(artifactOf("tritium-registry")),
             groupOf("org.springframework").and(artifactOf("spring-jcl")));
 
-    private static Predicate<ResolvedDependency> groupOf(String group) {
-        return dependency -> group.equals(dependency.getModuleGroup());
+    private static Predicate<ModuleVersionIdentifier> groupOf(String group) {
+        return module -> group.equals(module.getGroup());
     }
 
-    private static Predicate<ResolvedDependency> artifactOf(String name) {
-        return dependency -> name.equals(dependency.getModuleName());
+    private static Predicate<ModuleVersionIdentifier> artifactOf(String name) {
+        return module -> name.equals(module.getName());
     }
 
-    private static boolean isBanned(ResolvedDependency dependency) {
-        return BANNED_LIBRARIES.stream().anyMatch(predicate -> predicate.test(dependency));
+    private static boolean isBanned(ModuleVersionIdentifier module) {
+        return BANNED_LIBRARIES.stream().anyMatch(predicate -> predicate.test(module));
     }
 
     @Override
@@ -79,10 +107,20 @@ public class ShadowJarPlugin implements Plugin<Project> {
         project.getPluginManager().apply(JavaPlugin.class);
         project.getPluginManager().apply(ShadowPlugin.class);
 
+        ShadowJarExtension extension =
+                project.getExtensions().create(ShadowJarExtension.NAME, ShadowJarExtension.class);
+        extension.getIncremental().convention(false);
+        extension.getCompressionLevel().convention(Deflater.DEFAULT_COMPRESSION);
+        extension.getParallelRelocation().convention(false);
+        extension.getPerformanceReport().convention(false);
+        extension.getMinimize().convention(false);
+        extension.getDuplicateEntries().convention(DuplicateEntryPolicy.FIRST_WINS);
+        extension.getCdsArchive().convention(false);
+
         TaskProvider<ShadowJar> shadowJarProvider =
                 project.getTasks().withType(ShadowJar.class).named("shadowJar");
 
-        setupShadowJarToShadeTheCorrectDependencies(project, shadowJarProvider);
+        setupShadowJarToShadeTheCorrectDependencies(project, extension, shadowJarProvider);
 
         ensureShadowJarHasDefaultClassifierThatDoesNotClashWithTheRegularJarTask(project, shadowJarProvider);
 
@@ -94,7 +132,7 @@ public class ShadowJarPlugin implements Plugin<Project> {
     }
 
     private void setupShadowJarToShadeTheCorrectDependencies(
-            Project project, TaskProvider<ShadowJar> shadowJarProvider) {
+            Project project, ShadowJarExtension extension, TaskProvider<ShadowJar> shadowJarProvider) {
         Configuration shadeTransitively = project.getConfigurations().create("shadeTransitively", conf -> {
             conf.setCanBeConsumed(false);
             conf.setVisible(false);
@@ -154,96 +192,473 @@ public class ShadowJarPlugin implements Plugin<Project> {
                 .map(project.getConfigurations()::getByName)
                 .forEach(conf -> conf.extendsFrom(shadeTransitively)));
 
-        Supplier<ShadowingCalculation> shadowingCalculation = Suppliers.memoize(() -> {
-            Set<ResolvedDependency> shadedModules = shadeTransitively
-                    .getResolvedConfiguration()
-                    .getLenientConfiguration()
-                    .getAllModuleDependencies();
-
-            Set<ResolvedDependency> unshadedModules = unshaded.getResolvedConfiguration()
-                    .getLenientConfiguration()
-                    .getAllModuleDependencies();
-
-            Set<ResolvedDependency> onlyShadedModules = Sets.difference(shadedModules, unshadedModules);
-
-            Set<ResolvedDependency> directlyRejectedModules =
-                    onlyShadedModules.stream().filter(ShadowJarPlugin::isBanned).collect(Collectors.toSet());
-
-            Set<ResolvedDependency> highestLevelRejectedModules =
-                    Sets.difference(directlyRejectedModules, allChildren(directlyRejectedModules));
-
-            Set<ResolvedDependency> highestLevelRejectedModulesThatArentDirectlyListed = Sets.filter(
-                    highestLevelRejectedModules,
-                    dependency -> moduleDoesNotExistDirectlyInConfiguration(shadeTransitively, dependency));
-
-            Set<ResolvedDependency> transitivelyRejectedModules =
-                    selfAndAllChildren(highestLevelRejectedModulesThatArentDirectlyListed);
-
-            Set<ResolvedDependency> acceptedModules = Sets.difference(onlyShadedModules, transitivelyRejectedModules);
-
-            return ImmutableShadowingCalculation.builder()
-                    .acceptedShadedModules(acceptedModules)
-                    .rejectedShadedModules(highestLevelRejectedModulesThatArentDirectlyListed)
-                    .build();
-        });
-
+        // Only the root components of both graphs are needed, and everything derived from them is plain module
+        // coordinates and component ids, so the configuration cache can store it. The value is kept once read, as
+        // the dependency filter below consults it for every dependency.
+        Property<ShadowingCalculation> shadowingCalculation =
+                project.getObjects().property(ShadowingCalculation.class);
+        shadowingCalculation.set(shadeTransitively
+                .getIncoming()
+                .getResolutionResult()
+                .getRootComponent()
+                .zip(
+                        unshaded.getIncoming().getResolutionResult().getRootComponent(),
+                        ShadowJarPlugin::calculateShadowing));
+        shadowingCalculation.finalizeValueOnRead();
+        shadowingCalculation.disallowChanges();
+
+        Provider<Set<String>> acceptedModules =
+                shadowingCalculation.map(ShadowingCalculation::acceptedShadedModules);
+        Spec<ComponentIdentifier> isShadedComponent = new IsShadedComponent(
+                shadowingCalculation.map(ShadowingCalculation::acceptedShadedComponents));
+
+        DependencyHandler dependencies = project.getDependencies();
         rejectedFromShading
                 .getDependencies()
-                .addAllLater(project.getObjects().setProperty(Dependency.class).value(project.provider(() -> {
-                    return shadowingCalculation.get().rejectedShadedModules().stream()
-                            .map(this::depToString)
-                            .map(project.getDependencies()::create)
-                            .collect(Collectors.toSet());
-                })));
+                .addAllLater(project.getObjects()
+                        .setProperty(Dependency.class)
+                        .value(shadowingCalculation.map(calculation -> calculation.rejectedShadedModules().stream()
+                                .map(dependencies::create)
+                                .collect(Collectors.toSet()))));
+
+        Provider<JarEntryIndexCache> entryIndexCache = JarEntryIndexCache.register(project);
 
         TaskProvider<ShadowJarConfigurationTask> shadowJarConfigurationTask = project.getTasks()
                 .register("relocateShadowJar", ShadowJarConfigurationTask.class, relocateTask -> {
-                    relocateTask.getShadowJar().set(shadowJarProvider.get());
+                    relocateTask
+                            .getShadedJars()
+                            .from(shadeTransitively
+                                    .getIncoming()
+                                    .artifactView(view -> view.componentFilter(isShadedComponent))
+                                    .getFiles());
 
                     relocateTask.getPrefix().set(project.provider(() -> String.join(
                                     ".", "shadow", project.getGroup().toString(), project.getName())
                             .replace('-', '_')
                             .toLowerCase(Locale.US)));
 
-                    relocateTask.getAcceptedDependencies().set(project.provider(() -> shadowingCalculation
-                            .get()
-                            .acceptedShadedModules()));
+                    relocateTask.getAcceptedModules().set(acceptedModules);
+
+                    relocateTask
+                            .getRelocationPlan()
+                            .set(project.getLayout().getBuildDirectory().file("shadow-jar/relocation-plan.bin"));
+
+                    relocateTask.getEntryIndexCache().set(entryIndexCache);
+                    relocateTask.usesService(entryIndexCache);
+
+                    relocateTask.getDuplicateEntryPolicy().set(extension.getDuplicateEntries());
+                    relocateTask
+                            .getDuplicateEntriesReport()
+                            .set(project.getLayout().getBuildDirectory().file("shadow-jar/duplicate-entries.json"));
+
+                    relocateTask.getKeepClasses().set(extension.getKeepClasses());
+                    // Without minimize there are neither project classes to follow, nor does this task need to
+                    // wait for them to be compiled, nor are there unreachable classes to list
+                    FileCollection mainOutput = project.getExtensions()
+                            .getByType(SourceSetContainer.class)
+                            .getByName(SourceSet.MAIN_SOURCE_SET_NAME)
+                            .getOutput();
+                    FileCollection noClasses = project.files();
+                    relocateTask
+                            .getProjectClasses()
+                            .from(extension.getMinimize().map(minimize -> minimize ? mainOutput : noClasses));
+                    relocateTask
+                            .getUnreachableClasses()
+                            .set(whenEnabled(
+                                    project,
+                                    extension.getMinimize(),
+                                    project.getLayout()
+                                            .getBuildDirectory()
+                                            .file("shadow-jar/unreachable-classes.txt")));
+
+                    relocateTask
+                            .getPerformanceReport()
+                            .set(whenEnabled(
+                                    project,
+                                    extension.getPerformanceReport(),
+                                    project.getLayout()
+                                            .getBuildDirectory()
+                                            .file("shadow-jar/relocate-shadow-jar-report.json")));
                 });
 
+        Provider<RegularFile> relocationPlan =
+                shadowJarConfigurationTask.flatMap(ShadowJarConfigurationTask::getRelocationPlan);
+        Provider<RegularFile> unreachableClasses =
+                shadowJarConfigurationTask.flatMap(ShadowJarConfigurationTask::getUnreachableClasses);
+        Provider<RegularFile> relocateReport =
+                shadowJarConfigurationTask.flatMap(ShadowJarConfigurationTask::getPerformanceReport);
+        Provider<RegularFile> shadowJarReport = whenEnabled(
+                project,
+                extension.getPerformanceReport(),
+                project.getLayout().getBuildDirectory().file("reports/shadow-jar/performance.json"));
+
+        FileCollection relocatedShadedJars =
+                relocatedShadedJars(project, extension, shadeTransitively, relocationPlan, isShadedComponent);
+
+        setupClassDataSharing(project, extension, shadowJarProvider, relocationPlan, isShadedComponent);
+
         shadowJarProvider.configure(shadowJar -> {
             shadowJar.dependsOn(shadowJarConfigurationTask);
-            shadowJar.setConfigurations(Collections.singletonList(shadeTransitively));
+            // In incremental mode the dependencies arrive already relocated, so only the project's own classes still
+            // need work; the relocated jars are empty otherwise
+            shadowJar.setConfigurations(new ShadedConfigurations(extension.getIncremental(), shadeTransitively));
+            shadowJar.from(relocatedShadedJars);
+            // Only read once shadowJar runs, so it is an input of its own rather than part of entryCompression
+            Provider<Boolean> storeEntries = extension
+                    .getIncremental()
+                    .zip(
+                            compressionLevel(extension),
+                            (incremental, level) -> incremental && level == Deflater.NO_COMPRESSION);
+            shadowJar.getInputs().property("storeEntries", storeEntries);
+            shadowJar.doFirst("storeEntries", new StoreEntries(storeEntries));
+            shadowJar.getDependencyFilter().include(new IsAcceptedModule(acceptedModules));
+
+            // The relocator and manifest attributes come from the output of relocateShadowJar, which only exists
+            // once that task has run (or been restored from the build cache), so they are added just before
+            // shadowJar executes. The plan file itself is an input, so shadowJar stays correctly cacheable.
+            shadowJar
+                    .getInputs()
+                    .file(relocationPlan)
+                    .withPropertyName("relocationPlan")
+                    .withPathSensitivity(PathSensitivity.NONE);
+            shadowJar
+                    .getInputs()
+                    .file(unreachableClasses)
+                    .withPropertyName("unreachableClasses")
+                    .withPathSensitivity(PathSensitivity.NONE)
+                    .optional();
+            RelocatedJarAppender appender = new RelocatedJarAppender();
+            shadowJar.doFirst(
+                    "applyRelocationPlan",
+                    new ApplyRelocationPlan(relocationPlan, unreachableClasses, extension.getIncremental(), appender));
+            shadowJar.doLast("appendRelocatedJars", new AppendRelocatedJars(appender, relocatedShadedJars));
+            shadowJar
+                    .getOutputs()
+                    .file(shadowJarReport)
+                    .withPropertyName("performanceReport")
+                    .optional();
+            shadowJar.doLast("reportRelocation", new ReportRelocation(shadowJarReport, relocateReport));
         });
     }
 
-    private static boolean moduleDoesNotExistDirectlyInConfiguration(
-            Configuration shadeTransitively, ResolvedDependency dependency) {
+    private static FileCollection relocatedShadedJars(
+            Project project,
+            ShadowJarExtension extension,
+            Configuration shadeTransitively,
+            Provider<RegularFile> relocationPlan,
+            Spec<ComponentIdentifier> isShadedComponent) {
+        // A relocated jar is its own artifact type rather than an attribute that every jar would have to carry, so
+        // variant selection of other configurations, and of this one without incremental mode, is left as it was
+        project.getDependencies().registerTransform(RelocateJarTransform.class, spec -> {
+            spec.getFrom().attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, ArtifactTypeDefinition.JAR_TYPE);
+            spec.getTo()
+                    .attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, RelocateJarTransform.RELOCATED_JAR_TYPE);
+            spec.getParameters().getRelocationPlan().set(relocationPlan);
+            spec.getParameters().getCompressionLevel().set(compressionLevel(extension));
+            spec.getParameters().getParallel().set(extension.getParallelRelocation());
+            spec.getParameters().getExecutor().set(RelocationExecutor.register(project));
+        });
 
-        return shadeTransitively.getDependencies().withType(ExternalModuleDependency.class).stream()
-                .noneMatch(directDep -> directDep
-                        .getModule()
-                        .equals(dependency.getModule().getId().getModule()));
+        return shadeTransitively
+                .getIncoming()
+                .artifactView(view -> {
+                    view.getAttributes()
+                            .attribute(
+                                    ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE,
+                                    RelocateJarTransform.RELOCATED_JAR_TYPE);
+                    // Nothing is relocated ahead of time unless incremental mode is on
+                    view.componentFilter(
+                            Specs.intersect(new IsEnabled<>(extension.getIncremental()), isShadedComponent));
+                })
+                .getFiles();
     }
 
-    private static Set<ResolvedDependency> allChildren(Set<ResolvedDependency> deps) {
-        return deps.stream()
-                .flatMap(resolvedDependency -> selfAndAllChildren(resolvedDependency.getChildren()).stream())
+    private static void setupClassDataSharing(
+            Project project,
+            ShadowJarExtension extension,
+            TaskProvider<ShadowJar> shadowJarProvider,
+            Provider<RegularFile> relocationPlan,
+            Spec<ComponentIdentifier> isShadedComponent) {
+        // What a consumer of the published jar puts next to it: everything on the runtime classpath but what is shaded
+        FileCollection publishedDependencies = project.getConfigurations()
+                .getByName(JavaPlugin.RUNTIME_CLASSPATH_CONFIGURATION_NAME)
+                .getIncoming()
+                .artifactView(view -> view.componentFilter(Specs.negate(isShadedComponent)))
+                .getFiles();
+
+        project.getTasks()
+                .register("shadowJarClassDataSharing", ShadowJarClassDataSharingTask.class, cdsTask -> {
+                    cdsTask.setDescription("Records the classes a training run loads from the shadow jar for CDS.");
+                    cdsTask.getShadowJar().set(shadowJarProvider.flatMap(ShadowJar::getArchiveFile));
+                    cdsTask.getRuntimeClasspath().from(publishedDependencies);
+                    cdsTask.getRelocationPlan().set(relocationPlan);
+                    cdsTask.getMainClass().set(extension.getCdsTrainingMainClass());
+                    cdsTask.getArgs().set(extension.getCdsTrainingArgs());
+                    cdsTask.getJavaLauncher()
+                            .set(project.getExtensions()
+                                    .getByType(JavaToolchainService.class)
+                                    .launcherFor(project.getExtensions()
+                                            .getByType(JavaPluginExtension.class)
+                                            .getToolchain()));
+                    cdsTask.getClassList()
+                            .set(project.getLayout().getBuildDirectory().file("shadow-jar/cds/classes.classlist"));
+                    cdsTask.getArchive()
+                            .set(whenEnabled(
+                                    project,
+                                    extension.getCdsArchive(),
+                                    project.getLayout()
+                                            .getBuildDirectory()
+                                            .file(shadowJarProvider
+                                                    .flatMap(ShadowJar::getArchiveFileName)
+                                                    .map(name -> "shadow-jar/cds/" + name.replaceFirst("\\.jar$", "")
+                                                            + ".jsa"))));
+                });
+    }
+
+    private static ShadowingCalculation calculateShadowing(
+            ResolvedComponentResult shadedRoot, ResolvedComponentResult unshadedRoot) {
+        Map<ModuleVersionIdentifier, ResolvedComponentResult> shadedModules = modulesBelow(shadedRoot);
+        Set<ModuleVersionIdentifier> unshadedModules = modulesBelow(unshadedRoot).keySet();
+
+        Set<ModuleIdentifier> directlyListedModules = dependenciesOf(shadedRoot).stream()
+                .map(DependencyResult::getRequested)
+                .filter(ModuleComponentSelector.class::isInstance)
+                .map(selector -> ((ModuleComponentSelector) selector).getModuleIdentifier())
                 .collect(Collectors.toSet());
+
+        ShadowingCalculator<ModuleVersionIdentifier> calculator = new ShadowingCalculator<>(
+                module -> dependenciesOf(shadedModules.get(module)).stream()
+                        .map(dependency -> dependency.getSelected().getModuleVersion())
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toList()),
+                ShadowJarPlugin::isBanned,
+                module -> directlyListedModules.contains(module.getModule()));
+        ShadowingCalculator.Result<ModuleVersionIdentifier> result =
+                calculator.calculate(shadedModules.keySet(), unshadedModules);
+
+        return ImmutableShadowingCalculation.builder()
+                .acceptedShadedModules(result.acceptedModules().stream()
+                        .map(ShadowJarPlugin::moduleVersion)
+                        .collect(Collectors.toSet()))
+                .acceptedShadedComponents(result.acceptedModules().stream()
+                        .map(module -> shadedModules.get(module).getId())
+                        .collect(Collectors.toSet()))
+                .rejectedShadedModules(result.rejectedModules().stream()
+                        .map(module -> String.format("%s:%s", module.getGroup(), module.getName()))
+                        .collect(Collectors.toSet()))
+                .build();
+    }
+
+    /** Every component below {@code root} by its module version, like the legacy API's all module dependencies. */
+    private static Map<ModuleVersionIdentifier, ResolvedComponentResult> modulesBelow(ResolvedComponentResult root) {
+        Map<ModuleVersionIdentifier, ResolvedComponentResult> modules = new LinkedHashMap<>();
+        Deque<ResolvedComponentResult> queue = new ArrayDeque<>();
+        dependenciesOf(root).forEach(dependency -> queue.add(dependency.getSelected()));
+        while (!queue.isEmpty()) {
+            ResolvedComponentResult component = queue.poll();
+            ModuleVersionIdentifier module = component.getModuleVersion();
+            if (component.equals(root) || module == null || modules.putIfAbsent(module, component) != null) {
+                continue;
+            }
+            dependenciesOf(component).forEach(dependency -> queue.add(dependency.getSelected()));
+        }
+        return modules;
     }
 
-    private static Set<ResolvedDependency> selfAndAllChildren(Set<ResolvedDependency> deps) {
-        return Sets.union(deps, allChildren(deps));
+    /**
+     * The dependencies of a component that could be resolved, leniently skipping the rest. Constraints, such as the
+     * ones consistent-versions adds everywhere, only pick versions and do not bring modules into the graph.
+     */
+    private static List<ResolvedDependencyResult> dependenciesOf(ResolvedComponentResult component) {
+        return component.getDependencies().stream()
+                .filter(ResolvedDependencyResult.class::isInstance)
+                .map(ResolvedDependencyResult.class::cast)
+                .filter(dependency -> !dependency.isConstraint())
+                .collect(Collectors.toList());
+    }
+
+    private static String moduleVersion(ModuleVersionIdentifier module) {
+        return String.format("%s:%s:%s", module.getGroup(), module.getName(), module.getVersion());
     }
 
     @Value.Immutable
     interface ShadowingCalculation {
-        Set<ResolvedDependency> acceptedShadedModules();
+        /** The {@code group:name:version} of every module that is shaded. */
+        Set<String> acceptedShadedModules();
+
+        /** The components of the shaded modules, which pick their artifacts out of artifact views. */
+        Set<ComponentIdentifier> acceptedShadedComponents();
+
+        /** The {@code group:name} of the highest-level modules that are rejected from shading. */
+        Set<String> rejectedShadedModules();
+    }
+
+    // The actions and specs below are classes rather than lambdas so the configuration cache can store them; they
+    // only hold providers, which are resolved when shadowJar runs.
 
-        Set<ResolvedDependency> rejectedShadedModules();
+    /** Lets {@code shadowJar} through the dependencies that are shaded. */
+    private static final class IsAcceptedModule implements Spec<ResolvedDependency> {
+        private final Provider<Set<String>> acceptedModules;
+
+        IsAcceptedModule(Provider<Set<String>> acceptedModules) {
+            this.acceptedModules = acceptedModules;
+        }
+
+        @Override
+        public boolean isSatisfiedBy(ResolvedDependency dependency) {
+            return acceptedModules.get().contains(moduleVersion(dependency.getModule().getId()));
+        }
+    }
+
+    /** Mirrors {@link IsAcceptedModule} for artifact views: plain file dependencies are always shaded. */
+    private static final class IsShadedComponent implements Spec<ComponentIdentifier> {
+        private final Provider<Set<ComponentIdentifier>> acceptedComponents;
+
+        IsShadedComponent(Provider<Set<ComponentIdentifier>> acceptedComponents) {
+            this.acceptedComponents = acceptedComponents;
+        }
+
+        @Override
+        public boolean isSatisfiedBy(ComponentIdentifier id) {
+            return !(id instanceof ModuleComponentIdentifier || id instanceof ProjectComponentIdentifier)
+                    || acceptedComponents.get().contains(id);
+        }
     }
 
-    private String depToString(ResolvedDependency resolvedDependency) {
-        return String.format("%s:%s", resolvedDependency.getModuleGroup(), resolvedDependency.getModuleName());
+    private static Provider<Integer> compressionLevel(ShadowJarExtension extension) {
+        return extension.getCompressionLevel().map(level -> {
+            if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException(ShadowJarExtension.NAME
+                        + ".compressionLevel must be a deflater level from -1 (the default) to 9, but is " + level);
+            }
+            return level;
+        });
+    }
+
+    /** Makes {@code shadowJar} write STORED entries when {@code storeEntries} is set. */
+    private static final class StoreEntries implements Action<Task> {
+        private final Provider<Boolean> storeEntries;
+
+        StoreEntries(Provider<Boolean> storeEntries) {
+            this.storeEntries = storeEntries;
+        }
+
+        @Override
+        public void execute(Task task) {
+            if (storeEntries.get()) {
+                ((ShadowJar) task).setEntryCompression(ZipEntryCompression.STORED);
+            }
+        }
+    }
+
+    /** {@code value} while {@code enabled} is set, and no value otherwise. */
+    private static <T> Provider<T> whenEnabled(Project project, Provider<Boolean> enabled, Provider<T> value) {
+        ProviderFactory providers = project.getProviders();
+        return enabled.flatMap(on -> on ? value : providers.provider(() -> null));
+    }
+
+    /** Matches everything while {@code enabled} is set, and nothing otherwise. */
+    private static final class IsEnabled<T> implements Spec<T> {
+        private final Provider<Boolean> enabled;
+
+        IsEnabled(Provider<Boolean> enabled) {
+            this.enabled = enabled;
+        }
+
+        @Override
+        public boolean isSatisfiedBy(T element) {
+            return enabled.get();
+        }
+    }
+
+    /**
+     * The configurations {@code shadowJar} takes the shaded dependencies from, read only once shadow resolves them:
+     * none in incremental mode, where they come from the relocated jars instead.
+     */
+    private static final class ShadedConfigurations extends AbstractList<FileCollection> {
+        private final Provider<Boolean> incremental;
+        private final Configuration shadeTransitively;
+
+        ShadedConfigurations(Provider<Boolean> incremental, Configuration shadeTransitively) {
+            this.incremental = incremental;
+            this.shadeTransitively = shadeTransitively;
+        }
+
+        @Override
+        public FileCollection get(int index) {
+            Objects.checkIndex(index, size());
+            return shadeTransitively;
+        }
+
+        @Override
+        public int size() {
+            return incremental.get() ? 0 : 1;
+        }
+    }
+
+    private static final class ApplyRelocationPlan implements Action<Task> {
+        private final Provider<RegularFile> relocationPlan;
+        private final Provider<RegularFile> unreachableClasses;
+        private final Provider<Boolean> incremental;
+        private final RelocatedJarAppender appender;
+
+        ApplyRelocationPlan(
+                Provider<RegularFile> relocationPlan,
+                Provider<RegularFile> unreachableClasses,
+                Provider<Boolean> incremental,
+                RelocatedJarAppender appender) {
+            this.relocationPlan = relocationPlan;
+            this.unreachableClasses = unreachableClasses;
+            this.incremental = incremental;
+            this.appender = appender;
+        }
+
+        @Override
+        public void execute(Task task) {
+            ShadowJarConfigurationTask.applyRelocationPlan(
+                    (ShadowJar) task,
+                    relocationPlan.get().getAsFile(),
+                    unreachableClasses.isPresent() ? unreachableClasses.get().getAsFile() : null,
+                    incremental.get() ? appender : null);
+        }
+    }
+
+    /** Shares its {@link RelocatedJarAppender} with {@link ApplyRelocationPlan}, both being actions of one task. */
+    private static final class AppendRelocatedJars implements Action<Task> {
+        private final RelocatedJarAppender appender;
+        private final FileCollection relocatedJars;
+
+        AppendRelocatedJars(RelocatedJarAppender appender, FileCollection relocatedJars) {
+            this.appender = appender;
+            this.relocatedJars = relocatedJars;
+        }
+
+        @Override
+        public void execute(Task task) {
+            ShadowJar shadowJar = (ShadowJar) task;
+            appender.appendTo(
+                    shadowJar.getArchiveFile().get().getAsFile(),
+                    relocatedJars.getFiles(),
+                    shadowJar.isPreserveFileTimestamps());
+        }
+    }
+
+    private static final class ReportRelocation implements Action<Task> {
+        private final Provider<RegularFile> shadowJarReport;
+        private final Provider<RegularFile> relocateReport;
+
+        ReportRelocation(Provider<RegularFile> shadowJarReport, Provider<RegularFile> relocateReport) {
+            this.shadowJarReport = shadowJarReport;
+            this.relocateReport = relocateReport;
+        }
+
+        @Override
+        public void execute(Task task) {
+            ShadowJarConfigurationTask.reportRelocation(
+                    (ShadowJar) task,
+                    shadowJarReport.isPresent() ? shadowJarReport.get().getAsFile() : null,
+                    relocateReport.isPresent() ? relocateReport.get().getAsFile() : null);
+        }
     }
 
     private static void ensureShadowJarHasDefaultClassifierThatDoesNotClashWithTheRegularJarTask(
@@ -262,8 +677,10 @@ public class ShadowJarPlugin implements Plugin<Project> {
             shadowJar.setZip64(true);
 
             // Multiple jars might have an entry in META-INF/services for the same interface, so we merge them.
-            // https://imperceptiblethoughts.com/shadow/configuration/merging/#merging-service-descriptor-files
-            shadowJar.mergeServiceFiles();
+            // Registered once here, like the manifest transformer; applying the relocation plan only hands them
+            // the relocated names and the plan's attributes
+            shadowJar.transform(new ServiceFileMergingTransformer());
+            shadowJar.transform(new ManifestMergingTransformer());
         });
     }
 
@@ -0,0 +1,126 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Splits the modules of {@code shadeTransitively} into those that get shaded and the highest-level banned modules that
+ * are rejected from shading, together with everything they pull in.
+ *
+ * <p>Each module and dependency edge is visited at most once per traversal, so the whole calculation is linear in the
+ * size of the resolved graph no matter how many paths lead to a shared subtree. Generic over the node type so it can
+ * be exercised on synthetic graphs without resolving anything.
+ */
+final class ShadowingCalculator<T> {
+    private final Function<T, ? extends Collection<T>> children;
+    private final Predicate<T> isBanned;
+    private final Predicate<T> isDirectlyListed;
+
+    /**
+     * {@code isDirectlyListed} tells whether a module is declared directly in {@code shadeTransitively}. Banned modules
+     * that are declared directly are shaded anyway, as the user explicitly asked for them.
+     */
+    ShadowingCalculator(
+            Function<T, ? extends Collection<T>> children, Predicate<T> isBanned, Predicate<T> isDirectlyListed) {
+        this.children = children;
+        this.isBanned = isBanned;
+        this.isDirectlyListed = isDirectlyListed;
+    }
+
+    Result<T> calculate(Set<T> shadedModules, Set<T> unshadedModules) {
+        Set<T> directlyRejectedModules = new HashSet<>();
+        for (T module : shadedModules) {
+            if (!unshadedModules.contains(module) && isBanned.test(module)) {
+                directlyRejectedModules.add(module);
+            }
+        }
+
+        // A banned module below another banned module gets rejected along with its ancestor
+        Set<T> belowRejectedModules = reachableFrom(directlyRejectedModules, false);
+
+        ImmutableSet.Builder<T> rejectedModules = ImmutableSet.builder();
+        for (T module : directlyRejectedModules) {
+            if (!belowRejectedModules.contains(module) && !isDirectlyListed.test(module)) {
+                rejectedModules.add(module);
+            }
+        }
+        ImmutableSet<T> highestLevelRejectedModules = rejectedModules.build();
+
+        Set<T> transitivelyRejectedModules = reachableFrom(highestLevelRejectedModules, true);
+
+        ImmutableSet.Builder<T> acceptedModules = ImmutableSet.builder();
+        for (T module : shadedModules) {
+            if (!unshadedModules.contains(module) && !transitivelyRejectedModules.contains(module)) {
+                acceptedModules.add(module);
+            }
+        }
+
+        return new Result<>(acceptedModules.build(), highestLevelRejectedModules);
+    }
+
+    /** Iterative breadth-first walk, so deep graphs cannot overflow the stack and cycles terminate. */
+    private Set<T> reachableFrom(Collection<T> roots, boolean includeRoots) {
+        Set<T> visited = new HashSet<>();
+        Deque<T> queue = new ArrayDeque<>();
+        for (T root : roots) {
+            if (includeRoots) {
+                if (visited.add(root)) {
+                    queue.add(root);
+                }
+            } else {
+                queue.add(root);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            for (T child : children.apply(queue.poll())) {
+                if (visited.add(child)) {
+                    queue.add(child);
+                }
+            }
+        }
+        return visited;
+    }
+
+    static final class Result<T> {
+        private final ImmutableSet<T> acceptedModules;
+        private final ImmutableSet<T> rejectedModules;
+
+        private Result(ImmutableSet<T> acceptedModules, ImmutableSet<T> rejectedModules) {
+            this.acceptedModules = acceptedModules;
+            this.rejectedModules = rejectedModules;
+        }
+
+        /** Modules that end up inside the shadow jar. */
+        ImmutableSet<T> acceptedModules() {
+            return acceptedModules;
+        }
+
+        /** The highest-level banned modules, which become regular dependencies of the published module. */
+        ImmutableSet<T> rejectedModules() {
+            return rejectedModules;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar
+
+import com.google.common.base.Strings
+import java.util.zip.ZipFile
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.commons.ClassRemapper
+import org.objectweb.asm.tree.ClassNode
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ClassFileRelocatorSpec extends Specification {
+    private static final File GUAVA = new File(Strings.protectionDomain.codeSource.location.toURI())
+
+    @Unroll
+    def 'relocating guava with #relocatedPrefix relocatable gives the same classes as ASM'() {
+        given:
+        Map<String, byte[]> classes = guavaClasses()
+        ShadedNameRemapper remapper = new ShadedNameRemapper(
+                RelocatableIndex.of(classes.keySet().findAll { it.startsWith(relocatedPrefix) }), 'shadow.')
+        ClassFileRelocator relocator = new ClassFileRelocator(remapper)
+
+        when:
+        int unchanged = 0
+        List<String> different = []
+        classes.each { path, bytes ->
+            Optional<byte[]> relocated = relocator.relocate(bytes, path)
+            if (!relocated.isPresent()) {
+                unchanged++
+            }
+            if (!Arrays.equals(canonical(relocated.orElse(bytes)), canonical(remapWithAsm(bytes, remapper)))) {
+                different.add(path)
+            }
+        }
+
+        then:
+        different.isEmpty()
+        unchanged > 0
+
+        where:
+        relocatedPrefix << ['com/google/common/base/', 'com/google/common/primitives/', 'com/google/common/collect/']
+    }
+
+    def 'copies classes that only mention unrelocated classes as they are'() {
+        given:
+        byte[] bytes = guavaClasses()['com/google/common/base/Strings.class']
+        ShadedNameRemapper remapper =
+                new ShadedNameRemapper(RelocatableIndex.of(['org/slf4j/Logger.class']), 'shadow.')
+
+        expect:
+        !new ClassFileRelocator(remapper).relocate(bytes, 'com/google/common/base/Strings.class').isPresent()
+    }
+
+    def 'renames plain class names in the constant pool and keeps the rest of the class'() {
+        given:
+        // Only mentions classes as CONSTANT_Class entries, never in a descriptor or as a dotted string
+        byte[] bytes = classCreating('com/example/Factory', 'com/example/Product')
+        ShadedNameRemapper remapper = new ShadedNameRemapper(
+                RelocatableIndex.of(['com/example/Factory.class', 'com/example/Product.class']), 'shadow.')
+
+        when:
+        byte[] relocated = new ClassFileRelocator(remapper).relocate(bytes, 'com/example/Factory.class').get()
+
+        then:
+        new ClassReader(relocated).className == 'shadow/com/example/Factory'
+        Arrays.equals(canonical(relocated), canonical(remapWithAsm(bytes, remapper)))
+        // Everything after the constant pool, i.e. the methods and their code
+        relocated[-64..-1] == bytes[-64..-1]
+    }
+
+    def 'leaves entries that only look like classes alone'() {
+        given:
+        byte[] bytes = 'not a class'.bytes
+        ShadedNameRemapper remapper = new ShadedNameRemapper(RelocatableIndex.of(['fake.class']), 'shadow.')
+
+        expect:
+        !new ClassFileRelocator(remapper).relocate(bytes, 'fake.class').isPresent()
+    }
+
+    private static Map<String, byte[]> guavaClasses() {
+        new ZipFile(GUAVA).withCloseable { zipFile ->
+            zipFile.entries().findAll { it.name.endsWith('.class') }.collectEntries { entry ->
+                [(entry.name): zipFile.getInputStream(entry).bytes]
+            }
+        }
+    }
+
+    /** A class with a constructor and a {@code static Object create()} method returning a new {@code product}. */
+    private static byte[] classCreating(String name, String product) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS)
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, 'java/lang/Object', null)
+
+        MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, '<init>', '()V', null, null)
+        constructor.visitCode()
+        constructor.visitVarInsn(Opcodes.ALOAD, 0)
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, 'java/lang/Object', '<init>', '()V', false)
+        constructor.visitInsn(Opcodes.RETURN)
+        constructor.visitMaxs(0, 0)
+        constructor.visitEnd()
+
+        MethodVisitor create = writer.visitMethod(
+                Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, 'create', '()Ljava/lang/Object;', null, null)
+        create.visitCode()
+        create.visitTypeInsn(Opcodes.NEW, product)
+        create.visitInsn(Opcodes.DUP)
+        create.visitMethodInsn(Opcodes.INVOKESPECIAL, product, '<init>', '()V', false)
+        create.visitInsn(Opcodes.ARETURN)
+        create.visitMaxs(0, 0)
+        create.visitEnd()
+
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+
+    private static byte[] remapWithAsm(byte[] bytes, ShadedNameRemapper remapper) {
+        ClassWriter writer = new ClassWriter(0)
+        new ClassReader(bytes).accept(new ClassRemapper(writer, remapper), ClassReader.EXPAND_FRAMES)
+        return writer.toByteArray()
+    }
+
+    /** Rewrites a class with its constant pool in visiting order, so equivalent classes have equal bytes. */
+    private static byte[] canonical(byte[] bytes) {
+        ClassNode node = new ClassNode()
+        new ClassReader(bytes).accept(node, ClassReader.EXPAND_FRAMES)
+        ClassWriter writer = new ClassWriter(0)
+        node.accept(writer)
+        return writer.toByteArray()
+    }
+}
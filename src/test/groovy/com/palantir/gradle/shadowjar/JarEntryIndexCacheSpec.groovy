@@ -0,0 +1,275 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar
+
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+import spock.lang.TempDir
+import spock.lang.Unroll
+
+class JarEntryIndexCacheSpec extends Specification {
+    @TempDir
+    File tempDir
+
+    private Project project
+    private File cacheDirectory
+    private int services
+
+    def setup() {
+        project = ProjectBuilder.builder().withProjectDir(new File(tempDir, 'project')).build()
+        cacheDirectory = new File(tempDir, 'cache')
+    }
+
+    def 'reuses the listing of an unchanged jar from a previous build without reading the jar'() {
+        given:
+        File jar = writeJar('lib.jar', ['com/example/Foo.class', 'com/example/Bar.class'])
+        newCache().withCloseable { it.entriesOf(jar) }
+
+        when:
+        // Same size and modification time, but no longer a jar, so the listing must come from the cache directory
+        overwriteKeepingSizeAndModificationTime(jar)
+        List<String> entries = newCache().withCloseable { it.entriesOf(jar) }
+
+        then:
+        entries == ['com/example/Foo.class', 'com/example/Bar.class']
+    }
+
+    def 'keeps the CRC-32 and size of each entry in the listing of a previous build'() {
+        given:
+        File jar = writeJar('lib.jar', ['com/example/Foo.class', 'com/example/Bar.class'])
+        JarListing listed = newCache().withCloseable { it.listingOf(jar, new JarEntryIndexCache.Reads()) }
+
+        when:
+        overwriteKeepingSizeAndModificationTime(jar)
+        JarListing loaded = newCache().withCloseable { it.listingOf(jar, new JarEntryIndexCache.Reads()) }
+
+        then:
+        loaded.paths() == listed.paths()
+        (0..1).collect { [loaded.crc(it), loaded.size(it)] } == (0..1).collect { [listed.crc(it), listed.size(it)] }
+        (0..1).collect { loaded.size(it) } == ['com/example/Foo.class'.length(), 'com/example/Bar.class'.length()]
+    }
+
+    def 'shares listings in memory for the length of a build'() {
+        given:
+        File jar = writeJar('lib.jar', ['com/example/Foo.class'])
+        JarEntryIndexCache cache = newCache()
+        List<String> first = cache.entriesOf(jar)
+        cacheDirectory.deleteDir()
+
+        when:
+        overwriteKeepingSizeAndModificationTime(jar)
+        List<String> second = cache.entriesOf(jar)
+
+        then:
+        second.is(first)
+
+        cleanup:
+        cache.close()
+    }
+
+    def 'counts where listings came from and the bytes read for them'() {
+        given:
+        File jar = writeJar('lib.jar', ['com/example/Foo.class', 'com/example/Bar.class'])
+        JarEntryIndexCache.Reads fromJar = new JarEntryIndexCache.Reads()
+        JarEntryIndexCache.Reads fromListing = new JarEntryIndexCache.Reads()
+        JarEntryIndexCache.Reads fromMemory = new JarEntryIndexCache.Reads()
+
+        when:
+        newCache().withCloseable { it.listingOf(jar, fromJar) }
+        newCache().withCloseable { cache ->
+            cache.listingOf(jar, fromListing)
+            cache.listingOf(jar, fromMemory)
+        }
+
+        then:
+        [fromJar.jarsListed(), fromJar.listingsLoaded(), fromJar.listingsShared()] == [1, 0, 0]
+        fromJar.bytesRead() > 0 && fromJar.bytesRead() < jar.length()
+
+        [fromListing.jarsListed(), fromListing.listingsLoaded(), fromListing.listingsShared()] == [0, 1, 0]
+        fromListing.bytesRead() == listings().first().length()
+
+        [fromMemory.jarsListed(), fromMemory.listingsLoaded(), fromMemory.listingsShared()] == [0, 0, 1]
+        fromMemory.bytesRead() == 0
+    }
+
+    def 'lists a jar asked for by several callers at once a single time'() {
+        given:
+        List<File> jars = (1..4).collect { writeJar("lib${it}.jar", ["lib${it}/Foo.class".toString()]) }
+        JarEntryIndexCache cache = newCache()
+        List<JarEntryIndexCache.Reads> callers = (1..8).collect { new JarEntryIndexCache.Reads() }
+
+        when:
+        List<Thread> threads = callers.collect { reads ->
+            Thread.start { jars.each { cache.listingOf(it, reads) } }
+        }
+        threads*.join()
+
+        then:
+        callers.sum { it.jarsListed() } == jars.size()
+        callers.sum { it.listingsShared() } == (callers.size() - 1) * jars.size()
+
+        cleanup:
+        cache.close()
+    }
+
+    def 'reads the jar again once its modification time changes'() {
+        given:
+        File jar = writeJar('lib.jar', ['com/example/Foo.class'])
+        newCache().withCloseable { it.entriesOf(jar) }
+
+        when:
+        writeJar('lib.jar', ['com/example/Baz.class'])
+        jar.setLastModified(jar.lastModified() + 10_000)
+
+        then:
+        jar.length() == old(jar.length())
+        newCache().withCloseable { it.entriesOf(jar) } == ['com/example/Baz.class']
+    }
+
+    def 'reads the jar again once its size changes'() {
+        given:
+        File jar = writeJar('lib.jar', ['com/example/Foo.class'])
+        long lastModified = jar.lastModified()
+        newCache().withCloseable { it.entriesOf(jar) }
+
+        when:
+        writeJar('lib.jar', ['com/example/Foo.class', 'com/example/Bar.class'])
+        jar.setLastModified(lastModified)
+
+        then:
+        newCache().withCloseable { it.entriesOf(jar) } == ['com/example/Foo.class', 'com/example/Bar.class']
+    }
+
+    @Unroll
+    def 'recovers from a #corruption listing by reading the jar again'() {
+        given:
+        File jar = writeJar('lib.jar', ['com/example/Foo.class', 'com/example/Bar.class'])
+        newCache().withCloseable { it.entriesOf(jar) }
+        File listing = listings().first()
+        listing.bytes = corrupt(listing.bytes)
+
+        when:
+        List<String> entries = newCache().withCloseable { it.entriesOf(jar) }
+
+        then:
+        entries == ['com/example/Foo.class', 'com/example/Bar.class']
+
+        and: 'the listing is written again'
+        overwriteKeepingSizeAndModificationTime(jar)
+        newCache().withCloseable { it.entriesOf(jar) } == entries
+
+        where:
+        corruption      | corrupt
+        'truncated'     | { byte[] bytes -> Arrays.copyOf(bytes, bytes.length - 3) }
+        'empty'         | { byte[] bytes -> new byte[0] }
+        'garbage'       | { byte[] bytes -> 'not a listing at all'.bytes }
+        'other version' | { byte[] bytes -> [0, 0, 0, 99, 0, 0, 0, 0] as byte[] }
+    }
+
+    def 'evicts the least recently used listings beyond the size limit when the build finishes'() {
+        given:
+        List<File> jars = (1..4).collect { writeJar("lib${it}.jar", ["lib${it}/Foo.class".toString()]) }
+        Map<File, File> listingOfJar = jars.collectEntries { jar ->
+            List<File> before = listings()
+            newCache().withCloseable { it.entriesOf(jar) }
+            return [(jar): (listings() - before).first()]
+        }
+        long listingSize = listingOfJar.values().first().length()
+        long now = System.currentTimeMillis()
+        jars.eachWithIndex { jar, i -> listingOfJar[jar].setLastModified(now - (jars.size() - i) * 60_000L) }
+
+        when:
+        // Reading a listing marks it as recently used
+        newCache(listingSize * 2).withCloseable { it.entriesOf(jars[0]) }
+
+        then:
+        listings() as Set == [listingOfJar[jars[0]], listingOfJar[jars[3]]] as Set
+    }
+
+    def 'removes temp files left behind by earlier builds when the build finishes, but not recent ones'() {
+        given:
+        File jar = writeJar('lib.jar', ['com/example/Foo.class'])
+        cacheDirectory.mkdirs()
+        File stale = new File(cacheDirectory, 'killed.entries123.tmp')
+        stale.text = 'partial'
+        stale.setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000L)
+        File recent = new File(cacheDirectory, 'writing.entries456.tmp')
+        recent.text = 'partial'
+
+        when:
+        newCache().withCloseable { it.entriesOf(jar) }
+
+        then:
+        !stale.exists()
+        recent.exists()
+        listings().size() == 1
+    }
+
+    def 'leaves no temp file behind when a listing cannot be moved into place'() {
+        given:
+        File jar = writeJar('lib.jar', ['com/example/Foo.class'])
+        JarEntryIndexCache cache = newCache()
+        cache.entriesOf(jar)
+        File listing = listings().first()
+        cache.close()
+        // A directory where the listing goes makes moving the written temp file into place fail
+        listing.delete()
+        listing.mkdirs()
+        new File(listing, 'child').text = 'keeps the directory from being replaced'
+
+        when:
+        newCache().withCloseable { it.entriesOf(jar) }
+
+        then:
+        cacheDirectory.listFiles().findAll { it.name.endsWith('.tmp') }.isEmpty()
+    }
+
+    private JarEntryIndexCache newCache(long maxSizeBytes = 256L * 1024 * 1024) {
+        // Each registration is a new service, like each build of a daemon gets its own
+        return project.gradle.sharedServices.registerIfAbsent(
+                "jarEntryIndexCache${services++}", JarEntryIndexCache) {
+            it.parameters.cacheDirectory.set(cacheDirectory)
+            it.parameters.maxSizeBytes.set(maxSizeBytes)
+            it.parameters.maxEntriesInMemory.set(1_000L)
+        }.get()
+    }
+
+    private List<File> listings() {
+        return (cacheDirectory.listFiles() ?: [] as File[]).findAll { it.name.endsWith('.entries') }
+    }
+
+    private static void overwriteKeepingSizeAndModificationTime(File jar) {
+        long lastModified = jar.lastModified()
+        jar.bytes = new byte[jar.length()]
+        jar.setLastModified(lastModified)
+    }
+
+    private File writeJar(String name, List<String> entries) {
+        File jar = new File(tempDir, name)
+        new JarOutputStream(new FileOutputStream(jar)).withCloseable { out ->
+            entries.each { entry ->
+                out.putNextEntry(new JarEntry(entry))
+                out.write(entry.bytes)
+                out.closeEntry()
+            }
+        }
+        return jar
+    }
+}
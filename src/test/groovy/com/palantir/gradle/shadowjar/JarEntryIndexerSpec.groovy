@@ -0,0 +1,155 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.jar.JarEntry
+import java.util.jar.JarFile
+import java.util.jar.JarOutputStream
+import java.util.jar.Manifest
+import spock.lang.Specification
+import spock.lang.TempDir
+
+class JarEntryIndexerSpec extends Specification {
+    @TempDir
+    File tempDir
+
+    def 'lists the same entries of a jar as enumerating it with JarFile'() {
+        given:
+        File jar = writeJar('lib.jar', [
+                'com/',
+                'com/example/',
+                'com/example/Foo.class',
+                'com/example/Foo$Inner.class',
+                'com/example/resources.txt',
+                'META-INF/services/com.example.Service',
+                'META-INF/versions/9/com/example/Foo.class',
+                'Root.class',
+        ])
+
+        expect:
+        JarEntryIndexer.listEntries(jar) == jarFileEntries(jar)
+        !JarEntryIndexer.listEntries(jar).any { it.endsWith('/') }
+        JarEntryIndexer.listEntries(jar).contains(JarFile.MANIFEST_NAME)
+    }
+
+    def 'reports reading exactly the central directory and end record of a jar'() {
+        given:
+        File jar = writeJar('lib.jar', ['com/', 'com/example/', 'com/example/Foo.class', 'com/example/résumé.txt'])
+        long bytesRead = 0
+
+        when:
+        JarEntryIndexer.list(jar) { bytesRead += it }
+
+        then:
+        bytesRead == centralDirectoryAndEndRecordBytes(jar)
+    }
+
+    def 'records the CRC-32 and size of each entry from the central directory'() {
+        given:
+        File jar = writeJar('lib.jar', ['com/', 'com/example/Foo.class', 'com/example/resources.txt'])
+
+        when:
+        JarListing listing = JarEntryIndexer.list(jar) {}
+
+        then:
+        listing.paths().indices.collect { [listing.paths()[it], listing.crc(it), listing.size(it)] } ==
+                jarFileCrcsAndSizes(jar)
+    }
+
+    def 'indexes the union of the entries of several jars, counting entries in more than one jar once'() {
+        given:
+        List<File> jars = [
+                writeJar('first.jar', ['com/', 'com/example/', 'com/example/Foo.class', 'shared.properties']),
+                writeJar('second.jar', ['com/', 'com/example/', 'com/example/Bar.class', 'shared.properties']),
+                writeJar('third.jar', ['org/', 'org/other/Baz.class', 'com/example/Foo.class']),
+        ]
+
+        when:
+        Set<String> indexed = JarEntryIndexer.indexEntries(jars)
+
+        then:
+        indexed == jars.collectMany { jarFileEntries(it) } as Set
+        indexed.count { it == 'com/example/Foo.class' } == 1
+        !indexed.contains('com/example/')
+    }
+
+    def 'indexes each jar with the given lister'() {
+        given:
+        List<File> jars = (1..8).collect { writeJar("lib${it}.jar", ["lib${it}/Foo.class".toString()]) }
+        List<File> listed = Collections.synchronizedList([])
+
+        when:
+        Set<String> indexed = JarEntryIndexer.indexEntries(jars) { jar ->
+            listed.add(jar)
+            return JarEntryIndexer.listEntries(jar)
+        }
+
+        then:
+        listed as Set == jars as Set
+        listed.size() == jars.size()
+        indexed == (1..8).collect { "lib${it}/Foo.class".toString() } + JarFile.MANIFEST_NAME as Set
+    }
+
+    def 'fails on a jar with an absolute entry path'() {
+        given:
+        File jar = writeJar('absolute.jar', ['/com/example/Foo.class'])
+
+        when:
+        JarEntryIndexer.indexEntries([jar])
+
+        then:
+        IllegalStateException e = thrown()
+        e.message.contains('/com/example/Foo.class')
+    }
+
+    /** How entries were listed before {@link JarEntryIndexer}, kept here as the reference behaviour. */
+    private static List<String> jarFileEntries(File jar) {
+        new JarFile(jar).withCloseable { jarFile ->
+            Collections.list(jarFile.entries()).findAll { !it.directory }*.name
+        }
+    }
+
+    private static List<List<Object>> jarFileCrcsAndSizes(File jar) {
+        new JarFile(jar).withCloseable { jarFile ->
+            Collections.list(jarFile.entries()).findAll { !it.directory }.collect { [it.name, (int) it.crc, it.size] }
+        }
+    }
+
+    private static long centralDirectoryAndEndRecordBytes(File jar) {
+        ByteBuffer end = ByteBuffer.wrap(jar.bytes, (int) jar.length() - 22, 22).slice().order(ByteOrder.LITTLE_ENDIAN)
+        assert end.getInt(0) == 0x06054b50
+        return Integer.toUnsignedLong(end.getInt(12)) + 22
+    }
+
+    private File writeJar(String name, List<String> entries) {
+        File jar = new File(tempDir, name)
+        Manifest manifest = new Manifest()
+        manifest.mainAttributes.putValue('Manifest-Version', '1.0')
+        new JarOutputStream(new FileOutputStream(jar), manifest).withCloseable { out ->
+            entries.each { entry ->
+                out.putNextEntry(new JarEntry(entry))
+                if (!entry.endsWith('/')) {
+                    out.write(entry.bytes)
+                }
+                out.closeEntry()
+            }
+        }
+        return jar
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class RelocatableIndexSpec extends Specification {
+    private static final List<String> PATHS = [
+            'com/google/common/base/Strings.class',
+            'com/google/thirdparty/publicsuffix/PublicSuffixType.class',
+            'com/google/common/io/resources.txt',
+            'Root.class',
+            'META-INF/versions/9/module-info.class',
+            'weird/name.class.class',
+    ]
+
+    private final RelocatableIndex index = RelocatableIndex.of(PATHS)
+
+    @Unroll
+    def 'containsPathOrClass(#path) matches a HashSet lookup of the path and path.class'() {
+        expect:
+        index.containsPathOrClass(path) == (PATHS.contains(path) || PATHS.contains(path + '.class'))
+
+        where:
+        path << [
+                'com/google/common/base/Strings',
+                'com/google/common/base/Strings.class',
+                'com/google/common/base',
+                'com/google/common/io/resources.txt',
+                'com/google/common/io/resources',
+                'Root',
+                'Root.class',
+                'weird/name.class',
+                'weird/name',
+                'com/google/common/base/Strings.cla',
+                'org/slf4j/Logger',
+                '',
+        ]
+    }
+
+    @Unroll
+    def 'contains(#path) matches a HashSet lookup of the exact path'() {
+        expect:
+        index.contains(path) == PATHS.contains(path)
+
+        where:
+        path << [
+                'com/google/common/base/Strings.class',
+                'com/google/common/base/Strings',
+                'com/google/common/io/resources.txt',
+                'META-INF/versions/9/module-info.class',
+                'weird/name.class',
+                'weird/name.class.class',
+                'com/google',
+        ]
+    }
+
+    def 'counts each distinct path once'() {
+        expect:
+        RelocatableIndex.of(PATHS + PATHS).size() == PATHS.size()
+        RelocatableIndex.of([]).isEmpty()
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.TimeUnit
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+import spock.lang.TempDir
+
+class RelocationExecutorSpec extends Specification {
+    @TempDir
+    File tempDir
+
+    def 'shares one pool until the build finishes, then shuts its threads down'() {
+        given:
+        RelocationExecutor service = newService()
+        ExecutorService executor = service.executor()
+        String thread = executor.submit({ Thread.currentThread().name } as Callable<String>).get()
+
+        when:
+        service.close()
+
+        then:
+        thread.startsWith('shadow-jar-relocation-')
+        executor.awaitTermination(10, TimeUnit.SECONDS)
+    }
+
+    def 'starts a new pool when used again after closing'() {
+        given:
+        RelocationExecutor service = newService()
+        ExecutorService first = service.executor()
+
+        when:
+        service.close()
+        ExecutorService second = service.executor()
+
+        then:
+        first.isShutdown()
+        !second.is(first)
+        service.executor().is(second)
+
+        cleanup:
+        service.close()
+    }
+
+    private RelocationExecutor newService() {
+        return RelocationExecutor.register(ProjectBuilder.builder().withProjectDir(tempDir).build()).get()
+    }
+}
@@ -16,16 +16,26 @@
 
 package com.palantir.gradle.shadowjar
 
+import com.google.common.hash.Hashing
+import groovy.json.JsonSlurper
 import groovy.transform.CompileStatic
 import groovy.xml.XmlUtil
 import java.nio.charset.StandardCharsets
+import java.util.jar.JarEntry
 import java.util.jar.JarFile
+import java.util.jar.JarOutputStream
 import java.util.stream.Collectors
+import java.util.zip.ZipEntry
 import nebula.test.IntegrationSpec
 import nebula.test.dependencies.DependencyGraph
 import nebula.test.dependencies.GradleDependencyGenerator
 import nebula.test.functional.ExecutionResult
 import org.apache.commons.io.IOUtils
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.tree.ClassNode
 
 class ShadowJarPluginIntegrationSpec extends IntegrationSpec {
     private static final String MAVEN_ROOT = 'build/repo'
@@ -492,6 +502,569 @@ class ShadowJarPluginIntegrationSpec extends IntegrationSpec {
         shadowJarFile().manifest.mainAttributes.getValue('Foo') == 'Bar'
     }
 
+    def 'merges module flags from the manifests of shaded jars into the manifest of the thin jar'() {
+        writeJar('libs/shaded.jar', [
+                'META-INF/MANIFEST.MF': 'Manifest-Version: 1.0\r\nMain-Class: shaded.Main\r\n'
+                        + 'Add-Opens: java.base/java.lang java.base/java.io\r\n\r\n',
+                'shaded/Main.txt': 'main',
+        ])
+
+        buildFile << '''
+            dependencies {
+                shadeTransitively files('libs/shaded.jar')
+            }
+
+            jar {
+                manifest.attributes('Foo': 'Bar', 'Add-Opens': 'java.base/java.lang')
+            }
+        '''
+
+        when:
+        runTasksAndCheckSuccess('publishNebulaPublicationToTestRepoRepository')
+
+        then:
+        def jarFile = shadowJarFile()
+        jarFile.stream().filter { it.name == JarFile.MANIFEST_NAME }.count() == 1
+        def attributes = jarFile.manifest.mainAttributes
+        attributes.getValue('Foo') == 'Bar'
+        attributes.getValue('Add-Opens') == 'java.base/java.lang java.base/java.io'
+        attributes.getValue('Main-Class') == null
+    }
+
+    def 'relocateShadowJar writes a relocation plan and is up to date when nothing has changed'() {
+        buildFile << '''
+            dependencies {
+                shadeTransitively 'org.apiguardian:apiguardian-api:1.1.0'
+            }
+        '''
+
+        when:
+        runTasksAndCheckSuccess('shadowJar')
+        def secondRun = runTasksAndCheckSuccess('shadowJar')
+
+        then:
+        new File(projectDir, 'build/shadow-jar/relocation-plan.bin').exists()
+        secondRun.wasUpToDate(':relocateShadowJar')
+    }
+
+    def 'shadowJar can be loaded from the configuration cache'() {
+        // Only the plugins shadow-jar needs, so any configuration cache problem is one of its own
+        buildFile.text = '''
+            buildscript {
+                repositories {
+                    mavenCentral()
+                    maven { url 'https://plugins.gradle.org/m2/' }
+                }
+
+                dependencies {
+                    classpath 'com.palantir.gradle.consistentversions:gradle-consistent-versions:2.24.0'
+                }
+            }
+
+            apply plugin: 'com.palantir.consistent-versions'
+            apply plugin: 'com.palantir.shadow-jar'
+
+            group = 'com.palantir.bar-baz_quux'
+            version = '2'
+
+            repositories {
+                mavenCentral()
+            }
+
+            dependencies {
+                shadeTransitively 'com.google.guava:guava:28.2-jre'
+            }
+
+            shadowJarOptions {
+                incremental = true
+                minimize = true
+                performanceReport = true
+            }
+        '''.stripIndent()
+
+        file('src/main/java/pkg/Foo.java') << '''
+            package pkg;
+            import com.google.common.collect.ImmutableList;
+            public class Foo {
+                public static Object useGuava() { return ImmutableList.of(); }
+            }
+        '''.stripIndent()
+
+        when:
+        // Locks are written without the configuration cache, so the runs below configure identically
+        runTasksAndCheckSuccess()
+        def args = ['--warning-mode=none', 'shadowJar', '--configuration-cache'] as String[]
+        runTasks(args).rethrowFailure()
+        new File(projectDir, 'build/libs').deleteDir()
+        def secondRun = runTasks(args)
+        secondRun.rethrowFailure()
+
+        then:
+        secondRun.standardOutput.contains('Reusing configuration cache.')
+        secondRun.standardOutput.contains('Configuration cache entry reused')
+        def jarFile = new JarFile(new File(projectDir, 'build/libs/asd-fgh-2.jar'))
+        jarFile.getEntry(relocatedClass('com/google/common/collect/ImmutableList.class')) != null
+        jarFile.getEntry('com/google/common/collect/ImmutableList.class') == null
+    }
+
+    def 'reports entries duplicated between shaded jars and fails on conflicting copies when asked to'() {
+        writeJar('libs/first.jar', ['LICENSE': 'same', 'pkg/Dup.txt': 'first', 'META-INF/services/pkg.Api': 'pkg.A'])
+        writeJar('libs/second.jar', ['LICENSE': 'same', 'pkg/Dup.txt': 'second', 'META-INF/services/pkg.Api': 'pkg.B'])
+
+        buildFile << '''
+            dependencies {
+                shadeTransitively files('libs/first.jar', 'libs/second.jar')
+            }
+        '''
+
+        when:
+        runTasksAndCheckSuccess('shadowJar')
+
+        then:
+        def report = new JsonSlurper().parse(new File(projectDir, 'build/shadow-jar/duplicate-entries.json'))
+        report.duplicatePaths == 3
+        report.conflictingPaths == 1
+        report.duplicates.collectEntries { [(it.path): it.resolution] } == [
+                'LICENSE': 'identical',
+                'META-INF/services/pkg.Api': 'merged',
+                'pkg/Dup.txt': 'first wins',
+        ]
+        report.duplicates.find { it.path == 'pkg/Dup.txt' }.jars == ['first.jar', 'second.jar']
+
+        when:
+        buildFile << '''
+            shadowJarOptions {
+                duplicateEntries = com.palantir.gradle.shadowjar.DuplicateEntryPolicy.FAIL
+            }
+        '''
+        def failure = runTasksWithFailure('relocateShadowJar')
+
+        then:
+        failure.standardError.contains('Shaded jars contain different copies of 1 entries')
+        failure.standardError.contains('pkg/Dup.txt in first.jar, second.jar')
+    }
+
+    def 'merges the service providers of the project and of all shaded jars, listing each provider once'() {
+        writeJar('libs/first.jar', ['META-INF/services/pkg.Api': '# first\npkg.A\n\npkg.Shared # both jars\n'])
+        writeJar('libs/second.jar', ['META-INF/services/pkg.Api': '# first\npkg.Shared\r\npkg.B'])
+
+        buildFile << '''
+            dependencies {
+                shadeTransitively files('libs/first.jar', 'libs/second.jar')
+            }
+
+            shadowJar {
+                relocate 'pkg.B', 'other.B'
+            }
+        '''
+
+        file('src/main/resources/META-INF/services/pkg.Api') << 'pkg.Own\n'
+
+        when:
+        runTasksAndCheckSuccess('publishNebulaPublicationToTestRepoRepository')
+
+        then:
+        def jarFile = shadowJarFile()
+        def providers = IOUtils.toString(
+                jarFile.getInputStream(jarFile.getEntry('META-INF/services/pkg.Api')), StandardCharsets.UTF_8)
+        providers.split('\n') as List == ['pkg.Own', '# first', 'pkg.A', 'pkg.Shared # both jars', 'other.B']
+    }
+
+    def 'incremental mode produces the same entries and relocated classes as the default mode'() {
+        new File(projectDir, 'libs').mkdirs()
+        new JarOutputStream(new FileOutputStream(new File(projectDir, 'libs/root.jar'))).withCloseable { out ->
+            out.putNextEntry(new ZipEntry('about.html'))
+            out.write('<html/>'.getBytes(StandardCharsets.UTF_8))
+            out.closeEntry()
+            out.putNextEntry(new ZipEntry('Root.class'))
+            out.write(defaultPackageClass('Root'))
+            out.closeEntry()
+        }
+
+        buildFile << '''
+            dependencies {
+                shadeTransitively 'com.google.guava:guava:28.2-jre'
+                shadeTransitively files('libs/root.jar')
+            }
+        '''
+
+        file('src/main/java/pkg/Foo.java') << '''
+            package pkg;
+            import com.google.common.collect.ImmutableList;
+            public class Foo {
+                public static Object useGuava() { return ImmutableList.of(); }
+            }
+        '''.stripIndent()
+
+        when:
+        runTasksAndCheckSuccess('publishNebulaPublicationToTestRepoRepository')
+        def defaultMode = shadowJarContents()
+
+        buildFile << '''
+            shadowJarOptions {
+                incremental = true
+            }
+        '''
+        runTasksAndCheckSuccess('publishNebulaPublicationToTestRepoRepository')
+        def incrementalMode = shadowJarContents()
+
+        then:
+        defaultMode.keySet().contains(relocatedClass('com/google/common/collect/ImmutableList.class'))
+        defaultMode.keySet().contains(relocatedClass('Root.class'))
+        defaultMode.keySet().contains(relocatedClass('about.html'))
+        incrementalMode.keySet() == defaultMode.keySet()
+        incrementalMode.findAll { name, hash -> name.endsWith('.class') && hash != defaultMode[name] } == [:]
+    }
+
+    def 'incremental mode ships the classes of the intermediate jars without remapping them again'() {
+        buildFile << '''
+            shadowJarOptions {
+                incremental = true
+            }
+
+            dependencies {
+                shadeTransitively 'com.google.guava:guava:28.2-jre'
+            }
+
+            tasks.register('copyRelocatedJars', Copy) {
+                from configurations.shadeTransitively.incoming.artifactView {
+                    attributes {
+                        attribute(org.gradle.api.artifacts.type.ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE,
+                                'com.palantir.shadow-jar.relocated-jar')
+                    }
+                }.files
+                into 'build/relocated'
+            }
+        '''
+
+        file('src/main/java/pkg/Foo.java') << '''
+            package pkg;
+            public class Foo {}
+        '''.stripIndent()
+
+        when:
+        runTasksAndCheckSuccess('copyRelocatedJars', 'publishNebulaPublicationToTestRepoRepository')
+
+        then:
+        def jarFile = shadowJarFile()
+        def guava = file('build/relocated').listFiles().find { it.name.startsWith('guava-') }
+        def relocatedEntries = []
+        def differentEntries = new JarFile(guava).withCloseable { intermediate ->
+            relocatedEntries = intermediate.entries().toList()
+                    .findAll { !it.directory && it.name.startsWith(relocatedClass('')) }*.name
+            return relocatedEntries.findAll { name ->
+                def shipped = jarFile.getEntry(name)
+                shipped == null || jarFile.getInputStream(shipped).bytes
+                        != intermediate.getInputStream(intermediate.getEntry(name)).bytes
+            }
+        }
+        relocatedEntries.contains(relocatedClass('com/google/common/collect/ImmutableList.class'))
+        differentEntries.isEmpty()
+    }
+
+    def 'default mode runs relocators added to shadowJar and keeps project classes over shaded ones'() {
+        buildFile << '''
+            dependencies {
+                shadeTransitively 'com.google.guava:guava:28.2-jre'
+            }
+
+            shadowJar {
+                relocate 'com.google.common.base', 'custom.base'
+            }
+        '''
+
+        file('src/main/java/com/google/common/base/Strings.java') << '''
+            package com.google.common.base;
+            public final class Strings {
+                public static final String ORIGIN = "fromTheProject";
+            }
+        '''.stripIndent()
+
+        when:
+        runTasksAndCheckSuccess('publishNebulaPublicationToTestRepoRepository')
+
+        then:
+        def jarEntryNames = jarEntryNames()
+        jarEntryNames.contains('custom/base/Strings.class')
+        jarEntryNames.contains('custom/base/Preconditions.class')
+        !jarEntryNames.contains(relocatedClass('com/google/common/base/Preconditions.class'))
+
+        def jarFile = shadowJarFile()
+        def strings = IOUtils.toString(
+                jarFile.getInputStream(jarFile.getEntry('custom/base/Strings.class')), StandardCharsets.US_ASCII)
+        strings.contains('fromTheProject')
+        def immutableListEntry = jarFile.getEntry(relocatedClass('com/google/common/collect/ImmutableList.class'))
+        def immutableList = IOUtils.toString(jarFile.getInputStream(immutableListEntry), StandardCharsets.US_ASCII)
+        immutableList.contains('custom/base/Preconditions')
+        !immutableList.contains(relocatedClass('com/google/common/base/Preconditions'))
+    }
+
+    def 'parallel relocation keeps the entries of each shaded jar in their original order'() {
+        buildFile << '''
+            shadowJarOptions {
+                incremental = true
+                parallelRelocation = true
+            }
+
+            dependencies {
+                shadeTransitively 'com.google.guava:guava:28.2-jre'
+            }
+
+            tasks.register('writeGuavaEntries') {
+                def guava = configurations.shadeTransitively.incoming.files.filter { it.name.startsWith('guava-') }
+                def output = file('build/guava-entries.txt')
+                doLast {
+                    new java.util.zip.ZipFile(guava.singleFile).withCloseable { zip ->
+                        output.text = zip.entries().toList().findAll { !it.directory }*.name.join('\\n')
+                    }
+                }
+            }
+        '''
+
+        file('src/main/java/pkg/Foo.java') << '''
+            package pkg;
+            public class Foo {}
+        '''.stripIndent()
+
+        when:
+        runTasksAndCheckSuccess('writeGuavaEntries', 'publishNebulaPublicationToTestRepoRepository')
+
+        then:
+        def relocatedGuavaEntries = shadowJarFile().entries().toList()
+                .findAll { !it.directory && it.name.startsWith(relocatedClass('com/google/common/')) }*.name
+        relocatedGuavaEntries.contains(relocatedClass('com/google/common/collect/ImmutableList.class'))
+        relocatedGuavaEntries == file('build/guava-entries.txt').readLines()
+                .findAll { it.startsWith('com/google/common/') }
+                .collect { relocatedClass(it) }
+    }
+
+    def 'incremental mode with compression disabled writes a stored jar'() {
+        buildFile << '''
+            shadowJarOptions {
+                incremental = true
+                compressionLevel = 0
+            }
+
+            dependencies {
+                shadeTransitively 'com.google.guava:guava:28.2-jre'
+            }
+        '''
+
+        file('src/main/java/pkg/Foo.java') << '''
+            package pkg;
+            public class Foo {}
+        '''.stripIndent()
+
+        when:
+        runTasksAndCheckSuccess('publishNebulaPublicationToTestRepoRepository')
+
+        then:
+        def jarFile = shadowJarFile()
+        def immutableList = jarFile.getEntry(relocatedClass('com/google/common/collect/ImmutableList.class'))
+        immutableList != null
+        immutableList.method == ZipEntry.STORED
+        jarFile.getEntry('pkg/Foo.class').method == ZipEntry.STORED
+    }
+
+    def 'fails with a clear message on a compression level that is not a deflater level'() {
+        buildFile << '''
+            shadowJarOptions {
+                incremental = true
+                compressionLevel = 12
+            }
+
+            dependencies {
+                shadeTransitively 'com.google.guava:guava:28.2-jre'
+            }
+        '''
+
+        file('src/main/java/pkg/Foo.java') << '''
+            package pkg;
+            public class Foo {}
+        '''.stripIndent()
+
+        when:
+        def failure = runTasksWithFailure('shadowJar')
+
+        then:
+        failure.standardError.contains(
+                'shadowJarOptions.compressionLevel must be a deflater level from -1 (the default) to 9, but is 12')
+    }
+
+    def 'writes a performance report covering relocateShadowJar and shadowJar'() {
+        buildFile << '''
+            shadowJarOptions {
+                performanceReport = true
+            }
+
+            dependencies {
+                shadeTransitively 'com.google.guava:guava:28.2-jre'
+            }
+        '''
+
+        file('src/main/java/pkg/Foo.java') << '''
+            package pkg;
+            public class Foo {}
+        '''.stripIndent()
+
+        when:
+        runTasksAndCheckSuccess('shadowJar')
+
+        then:
+        def report = new JsonSlurper().parse(file('build/reports/shadow-jar/performance.json'))
+        report.task == 'shadowJar'
+        report.entriesWritten > 0
+        report.bytesWritten > 0
+        report.relocators.size() == 1
+        report.relocators[0].relocatePathCalls > 0
+        report.relocateShadowJar.bytesRead > 0
+        report.relocateShadowJar.jars > 0
+        report.relocateShadowJar.relocatablePaths > 0
+        report.relocateShadowJar.slowestJars*.jar.any { it.startsWith('guava') }
+    }
+
+    def 'minimize leaves out shaded classes that cannot be reached'() {
+        buildFile << '''
+            shadowJarOptions {
+                minimize = true
+                keepClasses = ['com.google.common.net.**']
+            }
+
+            dependencies {
+                shadeTransitively 'com.google.guava:guava:28.2-jre'
+            }
+        '''
+
+        file('src/main/java/pkg/Foo.java') << '''
+            package pkg;
+            import com.google.common.base.Strings;
+            public class Foo {
+                public static boolean useGuava() { return Strings.isNullOrEmpty(""); }
+            }
+        '''.stripIndent()
+
+        when:
+        runTasksAndCheckSuccess('shadowJar')
+
+        then:
+        def jarEntryNames = jarEntryNames()
+        jarEntryNames.contains('pkg/Foo.class')
+        jarEntryNames.contains(relocatedClass('com/google/common/base/Strings.class'))
+        jarEntryNames.contains(relocatedClass('com/google/common/net/HostAndPort.class'))
+        !jarEntryNames.contains(relocatedClass('com/google/common/cache/CacheBuilder.class'))
+        file('build/shadow-jar/unreachable-classes.txt').readLines()
+                .contains('com/google/common/cache/CacheBuilder.class')
+    }
+
+    def 'minimize set after the shadow jar tasks were configured still applies'() {
+        buildFile << '''
+            dependencies {
+                shadeTransitively 'com.google.guava:guava:28.2-jre'
+            }
+
+            tasks.named('relocateShadowJar').get()
+            tasks.named('shadowJar').get()
+            shadowJarOptions {
+                minimize = true
+            }
+        '''
+
+        file('src/main/java/pkg/Foo.java') << '''
+            package pkg;
+            import com.google.common.base.Strings;
+            public class Foo {
+                public static boolean useGuava() { return Strings.isNullOrEmpty(""); }
+            }
+        '''.stripIndent()
+
+        when:
+        runTasksAndCheckSuccess('publishNebulaPublicationToTestRepoRepository')
+
+        then:
+        def jarEntryNames = jarEntryNames()
+        jarEntryNames.contains(relocatedClass('com/google/common/base/Strings.class'))
+        !jarEntryNames.contains(relocatedClass('com/google/common/cache/CacheBuilder.class'))
+        file('build/shadow-jar/unreachable-classes.txt').readLines()
+                .contains('com/google/common/cache/CacheBuilder.class')
+    }
+
+    def 'shadowJarClassDataSharing records the relocated classes a training run loads'() {
+        buildFile << '''
+            shadowJarOptions {
+                cdsTrainingMainClass = 'pkg.Training'
+                cdsTrainingArgs = ['a', 'b']
+                cdsArchive = true
+            }
+
+            dependencies {
+                shadeTransitively 'com.google.guava:guava:28.2-jre'
+            }
+        '''
+
+        file('src/main/java/pkg/Training.java') << '''
+            package pkg;
+            import com.google.common.collect.ImmutableList;
+            public class Training {
+                public static void main(String[] args) {
+                    System.out.println(ImmutableList.copyOf(args));
+                }
+            }
+        '''.stripIndent()
+
+        when:
+        runTasksAndCheckSuccess('shadowJarClassDataSharing')
+
+        then:
+        def classList = file('build/shadow-jar/cds/classes.classlist').readLines().collect { it.split(' ')[0] }
+        classList.contains('pkg/Training')
+        classList.contains(relocatedClass('com/google/common/collect/ImmutableList'))
+        !classList.contains('com/google/common/collect/ImmutableList')
+        file('build/shadow-jar/cds/asd-fgh-2.jsa').exists()
+    }
+
+    def 'subprojects shading the same jars in parallel list each jar once and each get their own relocated copy'() {
+        ['one', 'two'].each { name ->
+            addSubproject(name, '''
+                apply plugin: 'com.palantir.shadow-jar'
+
+                group = 'com.palantir.bar-baz_quux'
+                version = '2'
+
+                repositories {
+                    mavenCentral()
+                }
+
+                dependencies {
+                    shadeTransitively 'com.google.guava:guava:28.2-jre'
+                }
+
+                shadowJarOptions {
+                    performanceReport = true
+                }
+            '''.stripIndent())
+        }
+
+        when:
+        runTasksAndCheckSuccess('--parallel', ':one:shadowJar', ':two:shadowJar')
+
+        then:
+        ['one', 'two'].each { name ->
+            def jar = new JarFile(file("${name}/build/libs/${name}-2.jar"))
+            assert jar.getEntry(
+                    "shadow/com/palantir/bar_baz_quux/${name}/com/google/common/collect/ImmutableList.class") != null
+        }
+
+        and: 'one project read each listing, from the jar or a previous build, and the other shared it'
+        def reports = ['one', 'two'].collect { name ->
+            new JsonSlurper().parse(file("${name}/build/shadow-jar/relocate-shadow-jar-report.json"))
+        }
+        int jars = reports[0].jars
+        jars > 0
+        reports[1].jars == jars
+        reports.sum { it.jarsListed + it.listingsLoaded } == jars
+        reports.sum { it.listingsShared } == jars
+    }
+
     def 'the right version of a module rejected from shading is used when specified as a virtual platfrom from versions.props'() {
         // This checks that excluding the `rejectedFromShading` configuration from having versions.props
         // constraint injection does not cause the wrong versions to be used for modules rejected from shading when
@@ -541,11 +1114,80 @@ class ShadowJarPluginIntegrationSpec extends IntegrationSpec {
         return shadowJar.stream().map({ it.name }).collect(Collectors.toSet())
     }
 
+    /** The files of the shadow jar with the sha256 of their contents, classes in {@link #canonical} form. */
+    @CompileStatic
+    private Map<String, String> shadowJarContents() {
+        Map<String, String> contents = [:]
+        shadowJarFile().withCloseable { JarFile jarFile ->
+            Collections.list(jarFile.entries()).findAll { !it.isDirectory() }.each { JarEntry entry ->
+                byte[] bytes = jarFile.getInputStream(entry).bytes
+                contents[entry.name] = Hashing.sha256()
+                        .hashBytes(entry.name.endsWith('.class') ? canonical(bytes) : bytes)
+                        .toString()
+            }
+        }
+        return contents
+    }
+
+    /**
+     * Rewrites a class with its constant pool in visiting order, as the classes relocated in place by incremental
+     * mode only differ from ASM's in that order.
+     */
+    @CompileStatic
+    private static byte[] canonical(byte[] bytes) {
+        ClassNode node = new ClassNode()
+        new ClassReader(bytes).accept(node, ClassReader.EXPAND_FRAMES)
+        ClassWriter writer = new ClassWriter(0)
+        node.accept(writer)
+        return writer.toByteArray()
+    }
+
+    /** A class in the default package with a {@code static Object create()} method returning a new instance. */
+    @CompileStatic
+    private static byte[] defaultPackageClass(String name) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS)
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, 'java/lang/Object', null)
+
+        MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, '<init>', '()V', null, null)
+        constructor.visitCode()
+        constructor.visitVarInsn(Opcodes.ALOAD, 0)
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, 'java/lang/Object', '<init>', '()V', false)
+        constructor.visitInsn(Opcodes.RETURN)
+        constructor.visitMaxs(0, 0)
+        constructor.visitEnd()
+
+        MethodVisitor create = writer.visitMethod(
+                Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, 'create', '()Ljava/lang/Object;', null, null)
+        create.visitCode()
+        create.visitTypeInsn(Opcodes.NEW, name)
+        create.visitInsn(Opcodes.DUP)
+        create.visitMethodInsn(Opcodes.INVOKESPECIAL, name, '<init>', '()V', false)
+        create.visitInsn(Opcodes.ARETURN)
+        create.visitMaxs(0, 0)
+        create.visitEnd()
+
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+
     @CompileStatic
     private JarFile shadowJarFile() {
         return new JarFile(file("${MAVEN_ROOT}/com/palantir/bar-baz_quux/asd-fgh/2/asd-fgh-2.jar"))
     }
 
+    @CompileStatic
+    private void writeJar(String path, Map<String, String> entries) {
+        File jar = new File(projectDir, path)
+        jar.parentFile.mkdirs()
+        new JarOutputStream(new FileOutputStream(jar)).withCloseable { out ->
+            entries.each { name, content ->
+                out.putNextEntry(new ZipEntry(name))
+                out.write(content.getBytes(StandardCharsets.UTF_8))
+                out.closeEntry()
+            }
+        }
+    }
+
     @CompileStatic
     private File generateMavenRepo(String... graph) {
         DependencyGraph dependencyGraph = new DependencyGraph(graph)
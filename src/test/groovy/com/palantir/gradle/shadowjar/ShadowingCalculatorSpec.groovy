@@ -0,0 +1,142 @@
+/*
+ * (c) Copyright 2026 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.shadowjar
+
+import java.util.concurrent.TimeUnit
+import spock.lang.Specification
+import spock.lang.Timeout
+
+class ShadowingCalculatorSpec extends Specification {
+    def 'banned modules below a banned module are rejected with it, and everything below is not shaded'() {
+        given:
+        def graph = [
+                'app': ['guava', 'logging'],
+                'guava': ['failureaccess'],
+                'logging': ['slf4j-impl'],
+                'slf4j-impl': ['slf4j'],
+        ]
+        def calculator = calculator(graph, ['logging', 'slf4j'] as Set, [] as Set)
+
+        when:
+        def result = calculator.calculate(allNodes(graph), [] as Set)
+
+        then:
+        result.rejectedModules() == ['logging'] as Set
+        result.acceptedModules() == ['app', 'guava', 'failureaccess'] as Set
+    }
+
+    def 'directly listed banned modules and modules that are also unshaded stay out of the rejected set'() {
+        given:
+        def graph = [
+                'app': ['slf4j', 'tracing'],
+                'slf4j': [],
+                'tracing': ['guava'],
+        ]
+        def calculator = calculator(graph, ['slf4j', 'tracing'] as Set, ['tracing'] as Set)
+
+        when:
+        def result = calculator.calculate(allNodes(graph), ['slf4j'] as Set)
+
+        then:
+        result.rejectedModules().isEmpty()
+        result.acceptedModules() == ['app', 'tracing', 'guava'] as Set
+    }
+
+    def 'matches the recursive calculation on diamond shaped graphs'() {
+        given:
+        def random = new Random(seed)
+        def graph = lattice(6, 8, 3, random)
+        def nodes = allNodes(graph)
+        def banned = nodes.findAll { random.nextInt(10) == 0 } as Set
+        def directlyListed = banned.findAll { random.nextBoolean() } as Set
+        def unshaded = nodes.findAll { random.nextInt(20) == 0 } as Set
+
+        when:
+        def result = calculator(graph, banned, directlyListed).calculate(nodes, unshaded)
+
+        then:
+        def expected = recursiveCalculation(graph, nodes, unshaded, banned, directlyListed)
+        result.acceptedModules() == expected.accepted
+        result.rejectedModules() == expected.rejected
+
+        where:
+        seed << (1..20)
+    }
+
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    def 'stays linear on large graphs where every module is reachable through many paths'() {
+        given:
+        // 60 layers of 100 modules, each depending on 4 modules of the next layer: exponentially many paths
+        def graph = lattice(60, 100, 4, new Random(0))
+        def nodes = allNodes(graph)
+        def banned = ['L1N0', 'L1N1', 'L30N5'] as Set
+
+        when:
+        def result = calculator(graph, banned, [] as Set).calculate(nodes, [] as Set)
+
+        then:
+        result.rejectedModules().containsAll(['L1N0', 'L1N1'])
+        banned.containsAll(result.rejectedModules())
+        result.acceptedModules().contains('L0N0')
+        !result.acceptedModules().contains('L59N0')
+    }
+
+    private static ShadowingCalculator<String> calculator(
+            Map<String, List<String>> graph, Set<String> banned, Set<String> directlyListed) {
+        return new ShadowingCalculator<String>(
+                { String node -> graph.getOrDefault(node, []) },
+                { String node -> banned.contains(node) },
+                { String node -> directlyListed.contains(node) })
+    }
+
+    private static Set<String> allNodes(Map<String, List<String>> graph) {
+        return (graph.keySet() + graph.values().flatten()) as Set<String>
+    }
+
+    private static Map<String, List<String>> lattice(int layers, int width, int degree, Random random) {
+        Map<String, List<String>> graph = [:]
+        for (int layer = 0; layer < layers; layer++) {
+            for (int node = 0; node < width; node++) {
+                graph["L${layer}N${node}".toString()] = layer == layers - 1
+                        ? []
+                        : (1..degree).collect { "L${layer + 1}N${random.nextInt(width)}".toString() }.unique()
+            }
+        }
+        return graph
+    }
+
+    /** The calculation as ShadowJarPlugin used to do it, with recursive set unions. */
+    private static Map<String, Set<String>> recursiveCalculation(
+            Map<String, List<String>> graph,
+            Set<String> shaded,
+            Set<String> unshaded,
+            Set<String> banned,
+            Set<String> directlyListed) {
+        Closure<Set<String>> allChildren
+        Closure<Set<String>> selfAndAllChildren = { Set<String> deps -> deps + allChildren(deps) }
+        allChildren = { Set<String> deps ->
+            deps.collectMany { selfAndAllChildren(graph.getOrDefault(it, []) as Set) } as Set<String>
+        }
+
+        def onlyShaded = shaded - unshaded
+        def directlyRejected = onlyShaded.findAll { banned.contains(it) } as Set<String>
+        def highestLevelRejected = (directlyRejected - allChildren(directlyRejected))
+                .findAll { !directlyListed.contains(it) } as Set<String>
+        def accepted = onlyShaded - selfAndAllChildren(highestLevelRejected)
+        return [accepted: accepted as Set<String>, rejected: highestLevelRejected]
+    }
+}